@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous front end to user authentication.
+ * Lookups and registrations run on a background executor and complete a
+ * CompletableFuture, so the AWT event thread never waits on users.txt.
+ * Opening the chat room after a login runs there too, so the event thread
+ * does not wait on the room's history either.
+ * Virtual threads are used when the runtime has them (Java 21+); otherwise a
+ * small pool of daemon threads does the work.
+ */
+public class AuthService implements AutoCloseable {
+    private static final int PLATFORM_THREADS = 2;
+    
+    private final ExecutorService executor;
+    
+    /**
+     * Constructor for AuthService
+     */
+    public AuthService() {
+        this.executor = createExecutor();
+    }
+    
+    private static ExecutorService createExecutor() {
+        try {
+            // Looked up reflectively so the code still compiles and runs on Java 17
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(PLATFORM_THREADS, r -> {
+                Thread thread = new Thread(r, "auth-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    /**
+     * Load the user index in the background so the first login does not pay for it
+     * @return Future completed once the index is loaded
+     */
+    public CompletableFuture<Void> preload() {
+        return CompletableFuture.runAsync(() -> FileManager.userExists(""), executor);
+    }
+    
+    /**
+     * Check a user's credentials
+     * @param username The username
+     * @param password The password
+     * @return Future completed with true if the credentials are valid, or
+     *         completed exceptionally with the IOException if the lookup failed
+     */
+    public CompletableFuture<Boolean> login(String username, String password) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return FileManager.validateUser(username, password);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+    
+    /**
+     * Register a new user
+     * @param username The username
+     * @param password The password
+     * @return Future completed once the user is stored, or completed exceptionally
+     *         with IllegalArgumentException if the user exists or IOException if
+     *         the users file cannot be written
+     */
+    public CompletableFuture<Void> register(String username, String password) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                FileManager.registerUser(username, password);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+    
+    /**
+     * Open a chat room and load its history
+     * @param name The room name
+     * @return Future completed with the room, or completed exceptionally with
+     *         IOException if its history cannot be read or IllegalArgumentException
+     *         if the name is not valid
+     */
+    public CompletableFuture<ChatRoom> openRoom(String name) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return FileManager.openRoom(name);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+    
+    /**
+     * Stop accepting requests; requests already submitted still complete
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
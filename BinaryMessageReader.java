@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads records in the MessageCodec binary format, either streamed from a channel
+ * or straight out of a (memory-mapped) buffer. Every record's CRC is checked
+ * and its timestamp decoded as it is stepped over; sender and content are only
+ * decoded when the record is parsed. Reading stops at the first torn or
+ * corrupt record, since nothing after it can be trusted.
+ */
+public class BinaryMessageReader implements RecordReader {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    
+    private final ReadableByteChannel channel;
+    private final List<String> senders;
+    private int[] senderIds; // Segment sender id to SymbolTable id, filled in as met
+    private final CRC32 crc;
+    private ByteBuffer buffer;
+    private byte[] scratch; // Content bytes copied out of a direct buffer
+    private long offset;
+    private long recordOffset;
+    private int fieldsStart;
+    private int bodyEnd;
+    private int flags;
+    private long timestamp;
+    private boolean corrupt;
+    
+    /**
+     * Constructor for BinaryMessageReader
+     * @param channel The source, positioned at the start of a record with an absolute timestamp
+     * @param senders The segment's sender table, indexed by sender id
+     */
+    public BinaryMessageReader(ReadableByteChannel channel, List<String> senders) {
+        this.channel = channel;
+        this.senders = senders;
+        this.senderIds = new int[0];
+        this.crc = new CRC32();
+        this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        this.buffer.flip();
+    }
+    
+    /**
+     * Constructor for a reader over records already in memory, such as a mapped
+     * segment. Nothing is copied; only the pages of records actually read are touched.
+     * @param records The records from the buffer's position to its limit; the reader takes ownership
+     * @param senders The segment's sender table, indexed by sender id
+     */
+    public BinaryMessageReader(ByteBuffer records, List<String> senders) {
+        this.channel = null;
+        this.senders = senders;
+        this.senderIds = new int[0];
+        this.crc = new CRC32();
+        this.buffer = records;
+    }
+    
+    /**
+     * Make at least the given number of unread bytes available
+     * @return false if the source ends first
+     */
+    private boolean fill(int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return true;
+        }
+        if (channel == null) {
+            return false;
+        }
+        if (buffer.capacity() < needed) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+            grown.put(buffer);
+            buffer = grown;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < needed) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= needed;
+    }
+    
+    @Override
+    public boolean nextRecord() throws IOException {
+        recordOffset = offset;
+        fill(10);
+        int start = buffer.position();
+        long bodyLength = MessageCodec.getVarLong(buffer);
+        if (bodyLength == -1 && !buffer.hasRemaining() && buffer.position() == start) {
+            return false; // Clean end of input
+        }
+        if (bodyLength <= 0 || bodyLength > MessageCodec.MAX_RECORD_BYTES) {
+            corrupt = true;
+            return false;
+        }
+        int lengthBytes = buffer.position() - start;
+        if (!fill((int) bodyLength + 4)) {
+            corrupt = true;
+            return false;
+        }
+        
+        int bodyStart = buffer.position();
+        bodyEnd = bodyStart + (int) bodyLength;
+        int limit = buffer.limit();
+        buffer.limit(bodyEnd);
+        crc.reset();
+        crc.update(buffer);
+        buffer.limit(limit);
+        if (buffer.getInt() != (int) crc.getValue()) {
+            corrupt = true;
+            return false;
+        }
+        int recordEnd = buffer.position();
+        
+        buffer.position(bodyStart);
+        flags = buffer.get();
+        long delta = MessageCodec.unzigzag(MessageCodec.getVarLong(buffer));
+        timestamp = (flags & MessageCodec.FLAG_ABSOLUTE) != 0 ? delta : timestamp + delta;
+        fieldsStart = buffer.position();
+        
+        buffer.position(recordEnd);
+        offset += lengthBytes + bodyLength + 4;
+        return true;
+    }
+    
+    @Override
+    public Message parseRecord() {
+        int resume = buffer.position();
+        buffer.position(fieldsStart);
+        int senderId = (int) MessageCodec.getVarLong(buffer);
+        int length = (int) MessageCodec.getVarLong(buffer);
+        int contentStart = buffer.position();
+        buffer.position(resume);
+        if (senderId < 0 || senderId >= senders.size() || length < 0
+                || contentStart + length > bodyEnd) {
+            return null;
+        }
+        String content;
+        if (buffer.hasArray()) {
+            content = new String(buffer.array(), buffer.arrayOffset() + contentStart,
+                    length, StandardCharsets.UTF_8);
+        } else {
+            if (scratch == null || scratch.length < length) {
+                scratch = new byte[Math.max(length, 256)];
+            }
+            buffer.get(contentStart, scratch, 0, length);
+            content = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        return new Message(symbolOf(senderId), content, new Date(timestamp));
+    }
+    
+    /**
+     * Map a segment sender id to its SymbolTable id, interning each name only once per reader
+     */
+    private int symbolOf(int senderId) {
+        if (senderId >= senderIds.length) {
+            int oldLength = senderIds.length;
+            senderIds = Arrays.copyOf(senderIds, senders.size());
+            Arrays.fill(senderIds, oldLength, senderIds.length, -1);
+        }
+        int symbol = senderIds[senderId];
+        if (symbol < 0) {
+            symbol = SymbolTable.intern(senders.get(senderId));
+            senderIds[senderId] = symbol;
+        }
+        return symbol;
+    }
+    
+    /**
+     * Get the timestamp of the current record
+     * @return Timestamp in milliseconds
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+    
+    /**
+     * Check whether the current record contains a mention, without decoding it
+     * @return true if the mention flag is set
+     */
+    public boolean hasMention() {
+        return (flags & MessageCodec.FLAG_MENTION) != 0;
+    }
+    
+    /**
+     * Get where the current record starts
+     * @return Byte offset relative to where reading began
+     */
+    public long recordOffset() {
+        return recordOffset;
+    }
+    
+    /**
+     * Get how many bytes of whole, valid records have been read
+     * @return Byte offset relative to where reading began
+     */
+    public long validBytes() {
+        return offset;
+    }
+    
+    /**
+     * Check whether reading stopped at a torn or corrupt record
+     * @return true if the input did not end cleanly
+     */
+    public boolean isCorrupt() {
+        return corrupt;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the records of a BlockCodec segment as one continuous stream, starting at
+ * a block and inflating each following block only when the reader gets to it.
+ * A reader that stops early never inflates the rest of the segment.
+ */
+public class BlockInputStream extends InputStream {
+    private final FileChannel channel;
+    private final Inflater inflater;
+    private final ByteBuffer blockHeader;
+    private long position;
+    private byte[] compressed;
+    private byte[] block;
+    private int blockLength;
+    private int blockPosition;
+    
+    /**
+     * Constructor for BlockInputStream
+     * @param file The compressed segment
+     * @param offset Offset of the first block to read
+     * @throws IOException If the file cannot be opened
+     */
+    public BlockInputStream(File file, long offset) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.inflater = new Inflater();
+        this.blockHeader = ByteBuffer.allocate(BlockCodec.BLOCK_HEADER_BYTES);
+        this.position = offset;
+        this.compressed = new byte[0];
+        this.block = new byte[0];
+    }
+    
+    /**
+     * Inflate the next block
+     * @return false at the end of the segment
+     */
+    private boolean nextBlock() throws IOException {
+        blockHeader.clear();
+        readFully(blockHeader);
+        if (blockHeader.position() == 0) {
+            return false;
+        }
+        if (blockHeader.hasRemaining()) {
+            throw new EOFException("Truncated block header at " + position);
+        }
+        blockHeader.flip();
+        blockHeader.getInt(); // Record count, only needed to build the index
+        blockHeader.getLong(); // Timestamp, likewise
+        int rawLength = blockHeader.getInt();
+        int length = blockHeader.getInt();
+        if (rawLength < 0 || length < 0) {
+            throw new IOException("Corrupt block header at " + position);
+        }
+        position += BlockCodec.BLOCK_HEADER_BYTES;
+        
+        if (compressed.length < length) {
+            compressed = new byte[length];
+        }
+        ByteBuffer data = ByteBuffer.wrap(compressed, 0, length);
+        readFully(data);
+        if (data.hasRemaining()) {
+            throw new EOFException("Truncated block at " + position);
+        }
+        position += length;
+        
+        if (block.length < rawLength) {
+            block = new byte[rawLength];
+        }
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        try {
+            blockLength = 0;
+            while (blockLength < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(block, blockLength, rawLength - blockLength);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                blockLength += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block before " + position + ": " + e.getMessage(), e);
+        }
+        if (blockLength != rawLength) {
+            throw new IOException("Block before " + position + " inflates to " + blockLength
+                    + " bytes, expected " + rawLength);
+        }
+        blockPosition = 0;
+        return true;
+    }
+    
+    private void readFully(ByteBuffer target) throws IOException {
+        long at = position;
+        while (target.hasRemaining()) {
+            int read = channel.read(target, at);
+            if (read < 0) {
+                return;
+            }
+            at += read;
+        }
+    }
+    
+    @Override
+    public int read() throws IOException {
+        while (blockPosition == blockLength) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        return block[blockPosition++] & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (blockPosition == blockLength) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, blockLength - blockPosition);
+        System.arraycopy(block, blockPosition, b, off, count);
+        blockPosition += count;
+        return count;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+}
@@ -4,6 +4,9 @@
  */
 public class ChatApp {
     public static void main(String[] args) {
+        // Publish metrics over JMX and to metrics.txt
+        Metrics.start();
+        
         // Create and display login UI
         LoginUI loginUI = new LoginUI();
         loginUI.setVisible(true);
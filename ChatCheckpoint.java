@@ -0,0 +1,164 @@
+import java.io.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the state a GroupChat derives from its first messageCount messages:
+ * the statistics and the mention index. A room saves one periodically and when it
+ * closes; on the next start the chat counts only the messages written after it
+ * and takes the rest from the checkpoint instead of reading the whole log.
+ * Like a saved SearchIndex it is only valid for the history it was taken from,
+ * which is checked by the count and the timestamp of the newest message it covers.
+ */
+public class ChatCheckpoint {
+    private static final int MAGIC = 0x43484350; // "CHCP"
+    private static final int VERSION = 1;
+    
+    private final int messageCount;
+    private final long lastTimestamp;
+    private final ChatStatistics statistics;
+    private final Map<Integer, int[]> mentions;
+    
+    /**
+     * Constructor for ChatCheckpoint
+     * @param messageCount Number of messages covered, from message 0
+     * @param lastTimestamp Timestamp of the newest covered message, or 0 if none
+     * @param statistics Statistics for exactly the covered messages
+     * @param mentions Ascending ids of the covered messages mentioning each user, by user id
+     */
+    public ChatCheckpoint(int messageCount, long lastTimestamp, ChatStatistics statistics,
+                          Map<Integer, int[]> mentions) {
+        this.messageCount = messageCount;
+        this.lastTimestamp = lastTimestamp;
+        this.statistics = statistics;
+        this.mentions = mentions;
+    }
+    
+    public int getMessageCount() {
+        return messageCount;
+    }
+    
+    public ChatStatistics getStatistics() {
+        return statistics;
+    }
+    
+    public Map<Integer, int[]> getMentions() {
+        return mentions;
+    }
+    
+    /**
+     * Check whether the checkpoint was taken from a history
+     * @param historySize Number of messages in the history
+     * @param newestCovered The history's message at messageCount - 1, or null if there is none
+     * @return true if every covered message is still in the history
+     */
+    public boolean matches(int historySize, Message newestCovered) {
+        if (messageCount == 0) {
+            return true;
+        }
+        return messageCount <= historySize && newestCovered != null
+                && newestCovered.getTimestamp().getTime() == lastTimestamp;
+    }
+    
+    /**
+     * Write the checkpoint to a file, replacing it atomically
+     * @param file The checkpoint file
+     * @throws IOException If the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(messageCount);
+            out.writeLong(lastTimestamp);
+            statistics.write(out);
+            out.writeInt(mentions.size());
+            for (Map.Entry<Integer, int[]> entry : mentions.entrySet()) {
+                // Names, not ids: SymbolTable ids differ between runs
+                out.writeUTF(SymbolTable.name(entry.getKey()));
+                int[] ids = entry.getValue();
+                out.writeInt(ids.length);
+                for (int id : ids) {
+                    out.writeInt(id);
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+    
+    /**
+     * Read a checkpoint written by {@link #save(File)}
+     * @param file The checkpoint file
+     * @return The checkpoint
+     * @throws IOException If the file cannot be read or is not a valid checkpoint
+     */
+    public static ChatCheckpoint load(File file) throws IOException {
+        try (DataInputStream in = open(file)) {
+            int messageCount = in.readInt();
+            long lastTimestamp = in.readLong();
+            ChatStatistics statistics = ChatStatistics.read(in);
+            int userCount = in.readInt();
+            Map<Integer, int[]> mentions = new HashMap<>();
+            for (int i = 0; i < userCount; i++) {
+                int userId = SymbolTable.intern(in.readUTF());
+                int[] ids = new int[in.readInt()];
+                for (int j = 0; j < ids.length; j++) {
+                    ids[j] = in.readInt();
+                }
+                mentions.put(userId, ids);
+            }
+            return new ChatCheckpoint(messageCount, lastTimestamp, statistics, mentions);
+        } catch (EOFException | RuntimeException e) {
+            throw new IOException("Corrupt checkpoint " + file + ": " + e, e);
+        }
+    }
+    
+    /**
+     * Find how many messages of a log a checkpoint file covers, reading only its
+     * header and the newest covered record, so a room can decide at open time how
+     * much of its history the chat still has to count
+     * @param file The checkpoint file
+     * @param log The log the checkpoint should have been taken from
+     * @return Number of covered messages, or 0 if there is no matching checkpoint
+     */
+    public static int coveredCount(File file, MessageLog log) {
+        if (!file.exists()) {
+            return 0;
+        }
+        try (DataInputStream in = open(file)) {
+            int messageCount = in.readInt();
+            long lastTimestamp = in.readLong();
+            if (messageCount <= 0 || messageCount > log.size()) {
+                return 0;
+            }
+            long ordinal = log.getFirstOrdinal() + messageCount - 1;
+            List<Message> newest = log.read(ordinal, ordinal + 1);
+            boolean matches = newest.size() == 1 && newest.get(0).getTimestamp().getTime() == lastTimestamp;
+            return matches ? messageCount : 0;
+        } catch (IOException e) {
+            // The chat counts the whole history instead
+            System.err.println("Error reading checkpoint " + file + ": " + e.getMessage());
+            return 0;
+        }
+    }
+    
+    private static DataInputStream open(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+}
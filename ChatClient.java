@@ -0,0 +1,159 @@
+import java.awt.EventQueue;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Client adapter that connects a MessageActions receiver (ChatUI) to a ChatServer.
+ * Outgoing messages are written on a background sender thread, and incoming
+ * messages are decoded on a reader thread and delivered on the AWT event thread.
+ * A client belongs to one room: it tags what it sends with the room and drops
+ * messages from other rooms.
+ */
+public class ChatClient implements Closeable {
+    private final Socket socket;
+    private final String room;
+    private final OutputStream out;
+    private final MessageActions receiver;
+    private final ExecutorService sender;
+    private final Thread readerThread;
+    private volatile boolean closed;
+    
+    /**
+     * Connect to a chat server and announce the user
+     * @param host The server host
+     * @param port The server port
+     * @param username The logged-in username
+     * @param room The room whose messages are sent and received
+     * @param receiver Receives messages sent by other clients in the room
+     * @throws IOException If the connection fails
+     */
+    public ChatClient(String host, int port, String username, String room, MessageActions receiver)
+            throws IOException {
+        this.room = room;
+        this.socket = new Socket();
+        this.socket.connect(new InetSocketAddress(host, port), 5000);
+        this.socket.setTcpNoDelay(true);
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.receiver = receiver;
+        this.sender = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-client-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        writeFrame(ChatProtocol.encodeHello(username));
+        out.flush();
+        
+        this.readerThread = new Thread(this::readLoop, "chat-client-reader");
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+    
+    /**
+     * Create a client from a "host:port" address, or return null if none is given
+     * @param address The server address, for example from the chat.server property
+     * @param username The logged-in username
+     * @param room The room whose messages are sent and received
+     * @param receiver Receives messages sent by other clients in the room
+     * @return The connected client, or null if address is null or empty
+     * @throws IOException If the connection fails
+     */
+    public static ChatClient connect(String address, String username, String room, MessageActions receiver)
+            throws IOException {
+        if (address == null || address.trim().isEmpty()) {
+            return null;
+        }
+        String host = address.trim();
+        int port = ChatProtocol.DEFAULT_PORT;
+        int colon = host.lastIndexOf(':');
+        if (colon > 0) {
+            port = Integer.parseInt(host.substring(colon + 1));
+            host = host.substring(0, colon);
+        }
+        return new ChatClient(host, port, username, room, receiver);
+    }
+    
+    /**
+     * Send a message to every other client in the room
+     * @param message The message to send
+     */
+    public void send(Message message) {
+        if (closed) {
+            return;
+        }
+        ByteBuffer frame = ChatProtocol.encodeMessage(room, message);
+        sender.execute(() -> {
+            try {
+                writeFrame(frame);
+                out.flush();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Error sending message: " + e.getMessage());
+                }
+            }
+        });
+    }
+    
+    private void writeFrame(ByteBuffer frame) throws IOException {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+    
+    /**
+     * Reader loop: decode frames and hand messages to the receiver
+     */
+    private void readLoop() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            while (!closed) {
+                int length = in.readInt();
+                if (length <= 0 || length > ChatProtocol.MAX_FRAME_BYTES) {
+                    throw new IOException("Malformed frame from server");
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                
+                ByteBuffer payload = ByteBuffer.wrap(frame);
+                if (payload.get() == ChatProtocol.TYPE_MESSAGE) {
+                    Message message;
+                    try {
+                        if (!room.equals(ChatProtocol.decodeRoom(payload))) {
+                            continue;
+                        }
+                        message = ChatProtocol.decodeMessage(payload);
+                    } catch (RuntimeException e) {
+                        // One bad frame must not stop the reader; the length header kept us in sync
+                        System.err.println("Skipped malformed message from chat server: " + e);
+                        continue;
+                    }
+                    EventQueue.invokeLater(() -> {
+                        // Closing happens before the receiver's room is closed
+                        if (!closed) {
+                            receiver.receiveMessage(message);
+                        }
+                    });
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Disconnected from chat server: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Disconnect from the server
+     */
+    @Override
+    public void close() {
+        closed = true;
+        sender.shutdown();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Framed wire protocol shared by ChatServer and ChatClient.
+ * Every frame is a 4-byte big-endian length followed by that many bytes:
+ * a 1-byte frame type and the payload.
+ * <pre>
+ *   HELLO   : username (u16 length + UTF-8)
+ *   MESSAGE : room (u16 length + UTF-8), timestamp (i64), sender (u16 length + UTF-8),
+ *             content (i32 length + UTF-8)
+ * </pre>
+ * The server relays a MESSAGE to every client; each client keeps only those for its own room.
+ */
+public class ChatProtocol {
+    public static final byte TYPE_HELLO = 1;
+    public static final byte TYPE_MESSAGE = 2;
+    
+    public static final int HEADER_BYTES = 4;
+    public static final int MAX_FRAME_BYTES = 1024 * 1024;
+    public static final int DEFAULT_PORT = 5050;
+    
+    private ChatProtocol() {
+    }
+    
+    /**
+     * Encode a HELLO frame announcing the connecting user
+     * @param username The username
+     * @return Buffer ready for writing
+     */
+    public static ByteBuffer encodeHello(String username) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + 1 + 2 + name.length);
+        frame.putInt(1 + 2 + name.length);
+        frame.put(TYPE_HELLO);
+        frame.putShort((short) name.length);
+        frame.put(name);
+        frame.flip();
+        return frame;
+    }
+    
+    /**
+     * Encode a MESSAGE frame
+     * @param roomName The room the message was posted to
+     * @param message The message to encode
+     * @return Buffer ready for writing
+     */
+    public static ByteBuffer encodeMessage(String roomName, Message message) {
+        return encodeMessage(roomName, message.getTimestamp().getTime(), message.getSender(),
+                message.getContent());
+    }
+    
+    /**
+     * Encode a MESSAGE frame from its fields
+     * @param roomName The room the message was posted to
+     * @param timestamp When the message was sent, in epoch milliseconds
+     * @param senderName The username of the sender
+     * @param text The message content
+     * @return Buffer ready for writing
+     */
+    public static ByteBuffer encodeMessage(String roomName, long timestamp, String senderName, String text) {
+        byte[] room = roomName.getBytes(StandardCharsets.UTF_8);
+        byte[] sender = senderName.getBytes(StandardCharsets.UTF_8);
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        if (room.length > 0xFFFF || sender.length > 0xFFFF) {
+            throw new IllegalArgumentException("Room or sender name too long");
+        }
+        int length = 1 + 2 + room.length + 8 + 2 + sender.length + 4 + content.length;
+        if (length > MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("Message too large to send");
+        }
+        
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + length);
+        frame.putInt(length);
+        frame.put(TYPE_MESSAGE);
+        frame.putShort((short) room.length);
+        frame.put(room);
+        frame.putLong(timestamp);
+        frame.putShort((short) sender.length);
+        frame.put(sender);
+        frame.putInt(content.length);
+        frame.put(content);
+        frame.flip();
+        return frame;
+    }
+    
+    /**
+     * Decode the username from a HELLO payload
+     * @param payload Buffer positioned just after the frame type
+     * @return The username
+     */
+    public static String decodeHello(ByteBuffer payload) {
+        return readString(payload, payload.getShort() & 0xFFFF);
+    }
+    
+    /**
+     * Decode the room from a MESSAGE payload
+     * @param payload Buffer positioned just after the frame type
+     * @return The room name; the buffer is left at the rest of the message
+     */
+    public static String decodeRoom(ByteBuffer payload) {
+        if (payload.remaining() < 2) {
+            throw new IllegalArgumentException("Malformed frame");
+        }
+        return readString(payload, payload.getShort() & 0xFFFF);
+    }
+    
+    /**
+     * Decode a Message from a MESSAGE payload
+     * @param payload Buffer positioned just after the room, see {@link #decodeRoom(ByteBuffer)}
+     * @return The decoded message
+     */
+    public static Message decodeMessage(ByteBuffer payload) {
+        long timestamp = payload.getLong();
+        String sender = readString(payload, payload.getShort() & 0xFFFF);
+        String content = readString(payload, payload.getInt());
+        Message message = new Message(sender, content);
+        message.setTimestamp(new Date(timestamp));
+        return message;
+    }
+    
+    /**
+     * Check a MESSAGE payload and encode it again with the given sender, so a
+     * relay never forwards bytes it could not decode or a sender the client made up
+     * @param payload Buffer positioned just after the frame type
+     * @param sender The username the connection announced in its HELLO frame
+     * @return Buffer ready for writing
+     * @throws IllegalArgumentException If the payload is malformed
+     */
+    public static ByteBuffer relayMessage(ByteBuffer payload, String sender) {
+        String room = decodeRoom(payload);
+        if (payload.remaining() < 8 + 2) {
+            throw new IllegalArgumentException("Malformed frame");
+        }
+        long timestamp = payload.getLong();
+        readString(payload, payload.getShort() & 0xFFFF); // Claimed sender, replaced
+        if (payload.remaining() < 4) {
+            throw new IllegalArgumentException("Malformed frame");
+        }
+        String content = readString(payload, payload.getInt());
+        if (payload.hasRemaining()) {
+            throw new IllegalArgumentException("Malformed frame");
+        }
+        return encodeMessage(room, timestamp, sender, content);
+    }
+    
+    private static String readString(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed frame");
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,497 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * One chat room: a GroupChat plus its own storage partition (message log,
+ * search index and checkpoint). Posted messages join the chat at once and queue for the disk;
+ * the queue is drained in batches by the executor shard the room hashes to,
+ * one batch per turn so busy rooms do not starve the others on their shard.
+ * Rooms share no writer and no message list, so they do not contend.
+ * <p>
+ * With a PagedHistory only the newest page is read when the room is loaded;
+ * a low-priority background thread then restores the saved search index and
+ * backfills statistics, mentions and the index from the older pages while the
+ * room is already in use. Statistics and mentions for the messages a saved
+ * {@link ChatCheckpoint} covers come from the checkpoint, so only the pages
+ * written since are read. Checkpoints are saved by {@link #checkpoint()} and on close,
+ * and {@link #compact()} compresses the closed segments of the room's log.
+ * {@link #expire(long, long)} applies retention to the open room.
+ * Opened and closed through a RoomRegistry.
+ */
+public class ChatRoom implements Closeable {
+    private static final int MAX_BATCH = 1024;
+    private static final LatencyHistogram loadTime = Metrics.histogram("room.loadHistory");
+    private static final LatencyHistogram batchTime = Metrics.histogram("room.batchWrite");
+    private static final LatencyHistogram saveIndexTime = Metrics.histogram("room.saveSearchIndex");
+    private static final LatencyHistogram checkpointTime = Metrics.histogram("room.saveCheckpoint");
+    private static final LatencyHistogram compactTime = Metrics.histogram("room.compactLog");
+    private static final LongAdder messagesWritten = Metrics.counter("room.messagesWritten");
+    
+    private final String name;
+    private final GroupChat chat;
+    private final MessageLog log;
+    private final boolean ownsLog;
+    private final File indexFile;
+    private final File checkpointFile;
+    private final Executor shard;
+    private final PersistenceWriter.Durability durability;
+    private final BlockingQueue<Message> pending;
+    private final AtomicBoolean scheduled;
+    private final Object writeLock;
+    private final Object postLock;
+    private final Object maintenanceLock; // Checkpoints, compaction and closing the log
+    private final CompletableFuture<Void> backfilled;
+    private Thread backfillThread;
+    private volatile PersistenceCallback callback;
+    private volatile boolean closed;
+    private volatile boolean loaded;
+    // Set once retention has dropped messages from the open log; the chat still
+    // numbers them from the old first message, so its checkpoint and index are stale
+    private volatile boolean expired;
+    
+    /**
+     * Constructor for ChatRoom
+     * @param name The room name
+     * @param chat The room's chat, still empty
+     * @param log The room's message log
+     * @param ownsLog Whether closing the room closes the log
+     * @param indexFile Where the room's search index is saved
+     * @param checkpointFile Where the room's checkpoint is saved
+     * @param shard The executor that writes the room's messages
+     * @param durability The durability mode for writes
+     * @param capacity Maximum number of unwritten messages before posting blocks
+     */
+    ChatRoom(String name, GroupChat chat, MessageLog log, boolean ownsLog, File indexFile, File checkpointFile,
+             Executor shard, PersistenceWriter.Durability durability, int capacity) {
+        this.name = name;
+        this.chat = chat;
+        this.log = log;
+        this.ownsLog = ownsLog;
+        this.indexFile = indexFile;
+        this.checkpointFile = checkpointFile;
+        this.shard = shard;
+        this.durability = durability;
+        this.pending = new ArrayBlockingQueue<>(capacity);
+        this.scheduled = new AtomicBoolean();
+        this.writeLock = new Object();
+        this.postLock = new Object();
+        this.maintenanceLock = new Object();
+        this.backfilled = new CompletableFuture<>();
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public GroupChat getChat() {
+        return chat;
+    }
+    
+    /**
+     * Get a future that completes once the chat's statistics and mentions cover
+     * every message in the room, that is when the room is loaded and the
+     * background backfill has counted the older pages. Until then queries such as
+     * {@link GroupChat#mentionsOf(String, long)} only see the loaded messages.
+     * @return Future completed on the backfill thread, or already completed
+     */
+    public CompletableFuture<Void> whenBackfilled() {
+        return backfilled;
+    }
+    
+    /**
+     * Set the callback notified after each batch
+     * @param callback The callback, or null to remove it
+     */
+    public void setCallback(PersistenceCallback callback) {
+        this.callback = callback;
+    }
+    
+    /**
+     * Load the room's history into its chat, reusing the saved search index
+     * if it still matches. Messages the chat's history already pages from the
+     * log are not read; they are backfilled in the background. Later calls do nothing.
+     * @throws IOException If the message log cannot be read
+     */
+    public synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            int earlier = chat.getMessageCount();
+            long from = log.getFirstOrdinal() + earlier;
+            List<Message> messages = log.readWithGaps(from, Long.MAX_VALUE);
+            // Message ids must stay equal to log positions, so unreadable records keep their place
+            PagedHistory.fillGaps(messages, from, messages.size());
+            if (earlier == 0) {
+                restoreSearchIndex(messages.size(), messages::get);
+            }
+            for (Message message : messages) {
+                chat.addMessage(message);
+            }
+            loaded = true;
+            
+            if (earlier == 0) {
+                backfilled.complete(null);
+            } else {
+                backfillThread = new Thread(this::backfill, "chat-room-backfill");
+                backfillThread.setDaemon(true);
+                backfillThread.setPriority(Thread.MIN_PRIORITY);
+                backfillThread.start();
+            }
+        } finally {
+            loadTime.recordSince(start);
+        }
+    }
+    
+    private void backfill() {
+        try {
+            ChatCheckpoint checkpoint = loadCheckpoint();
+            if (checkpoint != null) {
+                // Only the messages written since the checkpoint are read, so this is quick
+                chat.backfillEarlier(checkpoint);
+                checkBackfilled();
+            }
+            // Reading a large index takes as long as reading the history, so it waits until now
+            restoreSearchIndex(chat.getMessageCount(), id -> chat.getMessages(id, id + 1).get(0));
+            chat.catchUpSearchIndex();
+            chat.backfillEarlier(checkpoint);
+            checkBackfilled();
+        } catch (UncheckedIOException e) {
+            System.err.println("Error reading history of room " + name + ": " + e.getMessage());
+            backfilled.completeExceptionally(e);
+        }
+    }
+    
+    private void checkBackfilled() {
+        // Still counting when the backfill was interrupted by close()
+        if (chat.getBackfillRemaining() == 0) {
+            backfilled.complete(null);
+        }
+    }
+    
+    /**
+     * Read the saved checkpoint if it matches the history and covers only
+     * messages the chat has yet to backfill
+     * @return The checkpoint, or null to backfill every earlier message
+     */
+    private ChatCheckpoint loadCheckpoint() {
+        if (!checkpointFile.exists()) {
+            return null;
+        }
+        try {
+            ChatCheckpoint checkpoint = ChatCheckpoint.load(checkpointFile);
+            int count = checkpoint.getMessageCount();
+            if (count > chat.getBackfillRemaining()) {
+                // Taken after messages the chat has already counted
+                return null;
+            }
+            Message newest = count > 0 ? chat.getMessages(count - 1, count).get(0) : null;
+            return checkpoint.matches(chat.getMessageCount(), newest) ? checkpoint : null;
+        } catch (IOException e) {
+            System.err.println("Error loading checkpoint for room " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Give the chat the saved search index if it was built from this history
+     * @param size Number of messages in the history
+     * @param messageAt Looks up a message by id
+     */
+    private void restoreSearchIndex(int size, IntFunction<Message> messageAt) {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try {
+            SearchIndex index = SearchIndex.load(indexFile);
+            int count = index.getMessageCount();
+            Message newest = count > 0 && count <= size ? messageAt.apply(count - 1) : null;
+            if (index.matches(size, newest)) {
+                chat.restoreSearchIndex(index);
+            }
+        } catch (IOException e) {
+            // The index is rebuilt from the history
+            System.err.println("Error loading search index for room " + name + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Add a message to the room and queue it for writing.
+     * Messages reach the log in the order they were added to the chat, so
+     * message ids and log positions agree when the room is next opened.
+     * @param message The message to post
+     * @throws IOException If queueing is interrupted
+     */
+    public void post(Message message) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Room is closed: " + name);
+        }
+        synchronized (postLock) {
+            chat.addMessage(message);
+            try {
+                pending.put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while saving message");
+            }
+        }
+        schedule();
+    }
+    
+    /**
+     * Get the number of messages waiting to be written
+     * @return Queue depth
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * Hand the room to its shard unless it is already waiting there
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                shard.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Shard shut down; close() writes what is left
+                scheduled.set(false);
+            }
+        }
+    }
+    
+    /**
+     * Shard task: write one batch, then go to the back of the shard's queue if more is pending
+     */
+    private void drain() {
+        try {
+            writeBatch();
+        } finally {
+            scheduled.set(false);
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+    
+    /**
+     * Write up to MAX_BATCH pending messages
+     * @return false if nothing was pending
+     */
+    private boolean writeBatch() {
+        synchronized (writeLock) {
+            List<Message> batch = new ArrayList<>(Math.min(pending.size(), MAX_BATCH));
+            pending.drainTo(batch, MAX_BATCH);
+            if (batch.isEmpty()) {
+                return false;
+            }
+            
+            long start = System.nanoTime();
+            try {
+                for (Message message : batch) {
+                    log.append(message);
+                    if (durability == PersistenceWriter.Durability.PER_MESSAGE) {
+                        log.sync();
+                    }
+                }
+                if (durability == PersistenceWriter.Durability.BATCH) {
+                    log.sync();
+                } else {
+                    log.flush();
+                }
+                batchTime.recordSince(start);
+                messagesWritten.add(batch.size());
+                
+                PersistenceCallback cb = callback;
+                if (cb != null) {
+                    cb.batchPersisted(batch.size(), 0);
+                }
+            } catch (IOException e) {
+                PersistenceCallback cb = callback;
+                if (cb != null) {
+                    cb.persistenceFailed(batch.size(), 0, e);
+                } else {
+                    System.err.println("Error persisting messages in room " + name + ": " + e.getMessage());
+                }
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Write every pending message on the calling thread
+     */
+    public void flush() {
+        while (writeBatch()) {
+            // Keep going until the queue is empty
+        }
+    }
+    
+    /**
+     * Save the room's search index
+     * @throws IOException If the index cannot be written
+     */
+    public void saveSearchIndex() throws IOException {
+        if (expired) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            chat.getSearchIndex().save(indexFile);
+        } finally {
+            saveIndexTime.recordSince(start);
+        }
+    }
+    
+    /**
+     * Save a checkpoint of the chat's statistics and mentions. Skipped until the
+     * history is loaded and backfilled, since only then do they cover every message,
+     * and once retention has dropped messages from the open log.
+     * Queued messages are written first so the log holds every message it covers.
+     * The search index is not saved here: saving it holds the index lock, which
+     * would stall posting for as long as the write takes.
+     * @return Whether a checkpoint was saved
+     * @throws IOException If the checkpoint cannot be written
+     */
+    public boolean checkpoint() throws IOException {
+        synchronized (maintenanceLock) {
+            return !closed && saveCheckpoint();
+        }
+    }
+    
+    private boolean saveCheckpoint() throws IOException {
+        synchronized (maintenanceLock) {
+            if (!loaded || expired) {
+                return false;
+            }
+            long start = System.nanoTime();
+            try {
+                ChatCheckpoint checkpoint;
+                synchronized (postLock) {
+                    checkpoint = chat.checkpoint();
+                }
+                if (checkpoint == null) {
+                    return false;
+                }
+                flush();
+                checkpoint.save(checkpointFile);
+                return true;
+            } finally {
+                checkpointTime.recordSince(start);
+            }
+        }
+    }
+    
+    /**
+     * Compress the closed segments of the room's log. Message ids do not change,
+     * so this is safe while the room is in use.
+     * @return Number of segments compressed
+     * @throws IOException If a segment cannot be compressed
+     */
+    public int compact() throws IOException {
+        synchronized (maintenanceLock) {
+            if (closed) {
+                return 0;
+            }
+            long start = System.nanoTime();
+            try {
+                return log.compressClosedSegments();
+            } finally {
+                compactTime.recordSince(start);
+            }
+        }
+    }
+    
+    /**
+     * Drop the oldest segments of the room's log while they are older than a time
+     * or the log is larger than a size. Message ids do not change, so the room
+     * stays in use: the dropped messages it still pages from the log read as
+     * placeholders. Its saved checkpoint and search index number messages from the
+     * old first message, so they are deleted and not saved again until the room
+     * is reopened and rebuilds them.
+     * @param olderThan Drop segments whose newest message is before this time (ms); Long.MIN_VALUE keeps any age
+     * @param maxBytes Drop segments until the log is at most this many bytes; Long.MAX_VALUE keeps any size
+     * @return Number of messages dropped
+     * @throws IOException If a segment file cannot be deleted
+     */
+    public long expire(long olderThan, long maxBytes) throws IOException {
+        synchronized (maintenanceLock) {
+            if (closed) {
+                return 0;
+            }
+            long dropped = log.dropOldest(olderThan, maxBytes);
+            if (dropped > 0) {
+                expired = true;
+                checkpointFile.delete();
+                indexFile.delete();
+            }
+            return dropped;
+        }
+    }
+    
+    /**
+     * Stop accepting messages, write everything still queued, save a checkpoint
+     * and the search index if the history was loaded and close the log if the room owns it
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        stopBackfill();
+        flush();
+        if (loaded) {
+            try {
+                saveCheckpoint();
+            } catch (IOException e) {
+                System.err.println("Error saving checkpoint for room " + name + ": " + e.getMessage());
+            }
+            try {
+                saveSearchIndex();
+            } catch (IOException e) {
+                System.err.println("Error saving search index for room " + name + ": " + e.getMessage());
+            }
+        }
+        if (ownsLog) {
+            synchronized (maintenanceLock) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing message log for room " + name + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Interrupt the background backfill and wait for it; the search index it
+     * has built so far is still in id order and can be saved
+     */
+    private synchronized void stopBackfill() {
+        if (backfillThread == null) {
+            return;
+        }
+        backfillThread.interrupt();
+        try {
+            backfillThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        backfillThread = null;
+    }
+}
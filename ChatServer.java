@@ -0,0 +1,326 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Standalone chat server built on a single NIO Selector.
+ * Clients connect, announce themselves with a HELLO frame, and every MESSAGE
+ * frame they send is checked, stamped with the sender from that HELLO frame
+ * and fanned out to all other connected clients.
+ * The HELLO username is not authenticated, but only one connection at a time
+ * may hold it: a HELLO for a name already connected is refused by closing the
+ * new connection, so a client cannot send as a user who is online.
+ * Idle connections hold no buffers, so one box can keep tens of thousands open.
+ */
+public class ChatServer implements Runnable, Closeable {
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_PENDING_BYTES = 4 * 1024 * 1024; // Per slow client
+    
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ByteBuffer readBuffer;
+    private final Set<Connection> connections;
+    private final Map<String, Connection> connectionsByUser;
+    private volatile boolean running;
+    private Thread selectorThread;
+    
+    /**
+     * Constructor for ChatServer
+     * @param port The port to listen on, or 0 for any free port
+     * @throws IOException If the port cannot be bound
+     */
+    public ChatServer(int port) throws IOException {
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.bind(new InetSocketAddress(port), 1024);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.connectionsByUser = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Get the port the server is listening on
+     * @return The bound port
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+    
+    /**
+     * Get the number of open client connections
+     * @return Connection count
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+    
+    /**
+     * Start the selector loop on a background thread
+     */
+    public synchronized void start() {
+        if (selectorThread == null) {
+            running = true;
+            selectorThread = new Thread(this, "chat-server");
+            selectorThread.start();
+        }
+    }
+    
+    /**
+     * Selector loop: accept, read frames and flush pending writes
+     */
+    @Override
+    public void run() {
+        running = true;
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read((Connection) key.attachment());
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush((Connection) key.attachment());
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        if (key.attachment() != null) {
+                            disconnect((Connection) key.attachment());
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                System.err.println("Chat server stopped: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+    }
+    
+    /**
+     * Read into the shared buffer and dispatch every complete frame.
+     * Only a trailing partial frame is copied into the connection.
+     */
+    private void read(Connection connection) throws IOException {
+        readBuffer.clear();
+        int read = connection.channel.read(readBuffer);
+        if (read < 0) {
+            disconnect(connection);
+            return;
+        }
+        readBuffer.flip();
+        
+        ByteBuffer input = readBuffer;
+        if (connection.partial != null) {
+            connection.partial = append(connection.partial, readBuffer);
+            connection.partial.flip();
+            input = connection.partial;
+        }
+        
+        while (input.remaining() >= ChatProtocol.HEADER_BYTES) {
+            int length = input.getInt(input.position());
+            if (length <= 0 || length > ChatProtocol.MAX_FRAME_BYTES) {
+                disconnect(connection);
+                return;
+            }
+            if (input.remaining() < ChatProtocol.HEADER_BYTES + length) {
+                break;
+            }
+            
+            ByteBuffer frame = input.slice();
+            frame.limit(ChatProtocol.HEADER_BYTES + length);
+            input.position(input.position() + ChatProtocol.HEADER_BYTES + length);
+            handleFrame(connection, frame);
+            if (!connection.channel.isOpen()) {
+                return;
+            }
+        }
+        
+        if (input.hasRemaining()) {
+            ByteBuffer rest = ByteBuffer.allocate(Math.max(input.remaining(), 256));
+            rest.put(input);
+            connection.partial = rest;
+        } else {
+            connection.partial = null;
+        }
+    }
+    
+    private static ByteBuffer append(ByteBuffer partial, ByteBuffer data) {
+        if (partial.remaining() < data.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(partial.capacity() * 2,
+                    partial.position() + data.remaining()));
+            partial.flip();
+            grown.put(partial);
+            partial = grown;
+        }
+        partial.put(data);
+        return partial;
+    }
+    
+    /**
+     * Handle one complete frame (length header included)
+     */
+    private void handleFrame(Connection connection, ByteBuffer frame) throws IOException {
+        byte type = frame.get(ChatProtocol.HEADER_BYTES);
+        if (type == ChatProtocol.TYPE_HELLO && connection.username == null) {
+            frame.position(ChatProtocol.HEADER_BYTES + 1);
+            String username = ChatProtocol.decodeHello(frame);
+            if (connectionsByUser.putIfAbsent(username, connection) != null) {
+                System.err.println("Refused HELLO for " + username + ": already connected");
+                disconnect(connection);
+                return;
+            }
+            connection.username = username;
+        } else if (type == ChatProtocol.TYPE_MESSAGE && connection.username != null) {
+            frame.position(ChatProtocol.HEADER_BYTES + 1);
+            ByteBuffer relayed;
+            try {
+                relayed = ChatProtocol.relayMessage(frame, connection.username);
+            } catch (RuntimeException e) {
+                System.err.println("Dropped malformed message from " + connection.username + ": " + e.getMessage());
+                return;
+            }
+            // Encoded once; every recipient shares the same read-only bytes
+            broadcast(connection, relayed.asReadOnlyBuffer());
+        } else {
+            disconnect(connection);
+        }
+    }
+    
+    private void broadcast(Connection from, ByteBuffer frame) throws IOException {
+        for (Connection to : connections) {
+            if (to != from && to.username != null) {
+                try {
+                    enqueue(to, frame.duplicate());
+                } catch (IOException e) {
+                    disconnect(to);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Queue a frame, writing immediately when nothing else is pending
+     */
+    private void enqueue(Connection connection, ByteBuffer frame) throws IOException {
+        if (connection.pendingBytes + frame.remaining() > MAX_PENDING_BYTES) {
+            // Slow consumer; drop it rather than buffer without bound
+            disconnect(connection);
+            return;
+        }
+        boolean idle = connection.outbound.isEmpty();
+        connection.outbound.add(frame);
+        connection.pendingBytes += frame.remaining();
+        if (idle) {
+            flush(connection);
+        }
+    }
+    
+    private void flush(Connection connection) throws IOException {
+        while (!connection.outbound.isEmpty()) {
+            ByteBuffer head = connection.outbound.peek();
+            int written = connection.channel.write(head);
+            connection.pendingBytes -= written;
+            if (head.hasRemaining()) {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            connection.outbound.poll();
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+    }
+    
+    private void disconnect(Connection connection) {
+        connections.remove(connection);
+        if (connection.username != null) {
+            connectionsByUser.remove(connection.username, connection);
+        }
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Already closing
+        }
+    }
+    
+    /**
+     * Stop the selector loop and close every connection
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (selectorThread != null) {
+            try {
+                selectorThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Connection connection : connections) {
+            disconnect(connection);
+        }
+        serverChannel.close();
+        selector.close();
+    }
+    
+    /**
+     * State for one client connection
+     */
+    private static class Connection {
+        final SocketChannel channel;
+        final ArrayDeque<ByteBuffer> outbound;
+        SelectionKey key;
+        ByteBuffer partial; // Trailing incomplete frame, in write mode
+        int pendingBytes;
+        String username;
+        
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.outbound = new ArrayDeque<>(2);
+        }
+    }
+    
+    /**
+     * Run the server from the command line
+     * @param args Optional port number
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : ChatProtocol.DEFAULT_PORT;
+        ChatServer server = new ChatServer(port);
+        System.out.println("Chat server listening on port " + server.getPort());
+        server.run();
+    }
+}
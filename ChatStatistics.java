@@ -0,0 +1,372 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running chat statistics, updated once per message as it is added.
+ * Summaries read these counters instead of walking the message history,
+ * so rendering costs O(participants) however long the chat is.
+ */
+public class ChatStatistics {
+    private static final int LONG_MESSAGE_CHARS = 100;
+    private static final int RECENT_MENTIONS_KEPT = 10;
+    
+    private final LongAdder messageCount = new LongAdder();
+    private final LongAdder totalLength = new LongAdder();
+    private final LongAdder mentionCount = new LongAdder();
+    private final LongAdder questionCount = new LongAdder();
+    private final LongAdder longMessageCount = new LongAdder();
+    private final AtomicLong firstTimestamp = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastTimestamp = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLongArray messagesByHour = new AtomicLongArray(24);
+    private final Map<String, ParticipantStats> participants = new ConcurrentHashMap<>();
+    private final Deque<Message> recentMentions = new ConcurrentLinkedDeque<>();
+    private final ZoneId zone = ZoneId.systemDefault();
+    
+    /**
+     * Build statistics for a list of messages
+     * @param messages The messages to count
+     * @return Statistics covering exactly those messages
+     */
+    public static ChatStatistics of(Iterable<Message> messages) {
+        ChatStatistics statistics = new ChatStatistics();
+        for (Message message : messages) {
+            statistics.record(message);
+        }
+        return statistics;
+    }
+    
+    /**
+     * Update every counter for one new message
+     * @param message The message being added
+     */
+    public void record(Message message) {
+        String content = message.getContent();
+        record(message.getTimestamp().getTime(), message.getSenderId(), content.length(),
+                content.indexOf('?') >= 0);
+        if (message.hasMention()) {
+            recordMention(message);
+        }
+    }
+    
+    /**
+     * Update the per-message counters from plain column values, so histories that
+     * store messages as primitive arrays can be counted without building Messages
+     * @param time Timestamp in milliseconds
+     * @param senderId The sender's SymbolTable id
+     * @param length Content length in characters
+     * @param question Whether the content contains a '?'
+     */
+    public void record(long time, int senderId, int length, boolean question) {
+        messageCount.increment();
+        totalLength.add(length);
+        if (question) {
+            questionCount.increment();
+        }
+        if (length > LONG_MESSAGE_CHARS) {
+            longMessageCount.increment();
+        }
+        firstTimestamp.accumulateAndGet(time, Math::min);
+        lastTimestamp.accumulateAndGet(time, Math::max);
+        messagesByHour.incrementAndGet(Instant.ofEpochMilli(time).atZone(zone).getHour());
+        
+        ParticipantStats sender = participant(SymbolTable.name(senderId));
+        sender.messages.increment();
+        sender.lengthSum.add(length);
+    }
+    
+    /**
+     * Update the mention counters for a message that contains a mention.
+     * Call after recording the message itself.
+     * @param message The message
+     */
+    public void recordMention(Message message) {
+        countMention(message);
+        recentMentions.addLast(message);
+        while (recentMentions.size() > RECENT_MENTIONS_KEPT) {
+            recentMentions.pollFirst();
+        }
+    }
+    
+    /**
+     * Update every counter for a message older than any recorded so far, as when
+     * history is counted backwards in the background. Only the recent mentions
+     * depend on order: an older mention joins them only while there is room.
+     * @param message The message
+     */
+    public void recordEarlier(Message message) {
+        String content = message.getContent();
+        record(message.getTimestamp().getTime(), message.getSenderId(), content.length(),
+                content.indexOf('?') >= 0);
+        if (message.hasMention()) {
+            countMention(message);
+            if (recentMentions.size() < RECENT_MENTIONS_KEPT) {
+                recentMentions.addFirst(message);
+            }
+        }
+    }
+    
+    /**
+     * Add statistics covering messages older than any recorded so far, such as
+     * those saved in a checkpoint. Their recent mentions join only while there is room.
+     * @param earlier Statistics for the older messages
+     */
+    public void addEarlier(ChatStatistics earlier) {
+        messageCount.add(earlier.messageCount.sum());
+        totalLength.add(earlier.totalLength.sum());
+        mentionCount.add(earlier.mentionCount.sum());
+        questionCount.add(earlier.questionCount.sum());
+        longMessageCount.add(earlier.longMessageCount.sum());
+        firstTimestamp.accumulateAndGet(earlier.firstTimestamp.get(), Math::min);
+        lastTimestamp.accumulateAndGet(earlier.lastTimestamp.get(), Math::max);
+        for (int hour = 0; hour < 24; hour++) {
+            messagesByHour.addAndGet(hour, earlier.messagesByHour.get(hour));
+        }
+        for (Map.Entry<String, ParticipantStats> entry : earlier.participants.entrySet()) {
+            participant(entry.getKey()).add(entry.getValue());
+        }
+        List<Message> mentions = new ArrayList<>(earlier.recentMentions);
+        for (int i = mentions.size() - 1; i >= 0 && recentMentions.size() < RECENT_MENTIONS_KEPT; i--) {
+            recentMentions.addFirst(mentions.get(i));
+        }
+    }
+    
+    /**
+     * Write every counter, for {@link #read(DataInputStream)}.
+     * The statistics should not change while they are written.
+     * @param out The stream to write to
+     * @throws IOException If writing fails
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(messageCount.sum());
+        out.writeLong(totalLength.sum());
+        out.writeLong(mentionCount.sum());
+        out.writeLong(questionCount.sum());
+        out.writeLong(longMessageCount.sum());
+        out.writeLong(firstTimestamp.get());
+        out.writeLong(lastTimestamp.get());
+        for (int hour = 0; hour < 24; hour++) {
+            out.writeLong(messagesByHour.get(hour));
+        }
+        List<Map.Entry<String, ParticipantStats>> entries = new ArrayList<>(participants.entrySet());
+        out.writeInt(entries.size());
+        for (Map.Entry<String, ParticipantStats> entry : entries) {
+            ParticipantStats stats = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(stats.getMessages());
+            out.writeLong(stats.getLengthSum());
+            out.writeLong(stats.getMentionsMade());
+            out.writeLong(stats.getTimesMentioned());
+        }
+        List<Message> mentions = new ArrayList<>(recentMentions);
+        out.writeInt(mentions.size());
+        for (Message message : mentions) {
+            byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+            out.writeUTF(message.getSender());
+            out.writeLong(message.getTimestamp().getTime());
+            out.writeInt(content.length);
+            out.write(content);
+        }
+    }
+    
+    /**
+     * Read statistics written by {@link #write(DataOutputStream)}
+     * @param in The stream to read from
+     * @return The statistics
+     * @throws IOException If reading fails
+     */
+    public static ChatStatistics read(DataInputStream in) throws IOException {
+        ChatStatistics statistics = new ChatStatistics();
+        statistics.messageCount.add(in.readLong());
+        statistics.totalLength.add(in.readLong());
+        statistics.mentionCount.add(in.readLong());
+        statistics.questionCount.add(in.readLong());
+        statistics.longMessageCount.add(in.readLong());
+        statistics.firstTimestamp.set(in.readLong());
+        statistics.lastTimestamp.set(in.readLong());
+        for (int hour = 0; hour < 24; hour++) {
+            statistics.messagesByHour.set(hour, in.readLong());
+        }
+        int participantCount = in.readInt();
+        for (int i = 0; i < participantCount; i++) {
+            ParticipantStats stats = statistics.participant(in.readUTF());
+            stats.messages.add(in.readLong());
+            stats.lengthSum.add(in.readLong());
+            stats.mentionsMade.add(in.readLong());
+            stats.timesMentioned.add(in.readLong());
+        }
+        int mentionCount = in.readInt();
+        for (int i = 0; i < mentionCount; i++) {
+            String sender = in.readUTF();
+            Date timestamp = new Date(in.readLong());
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            statistics.recentMentions.addLast(new Message(sender, new String(content, StandardCharsets.UTF_8), timestamp));
+        }
+        return statistics;
+    }
+    
+    private void countMention(Message message) {
+        mentionCount.increment();
+        int[] mentionedUsers = message.getMentionedUserIds();
+        if (mentionedUsers.length > 0) {
+            participant(message.getSender()).mentionsMade.increment();
+        }
+        for (int mentionedUser : mentionedUsers) {
+            participant(SymbolTable.name(mentionedUser)).timesMentioned.increment();
+        }
+    }
+    
+    private ParticipantStats participant(String username) {
+        return participants.computeIfAbsent(username, k -> new ParticipantStats());
+    }
+    
+    // Getters
+    public long getMessageCount() {
+        return messageCount.sum();
+    }
+    
+    public long getMentionCount() {
+        return mentionCount.sum();
+    }
+    
+    public long getQuestionCount() {
+        return questionCount.sum();
+    }
+    
+    public long getLongMessageCount() {
+        return longMessageCount.sum();
+    }
+    
+    /**
+     * Get the average message length in characters
+     * @return Average length, or 0 if there are no messages
+     */
+    public double getAverageLength() {
+        long count = messageCount.sum();
+        return count > 0 ? (double) totalLength.sum() / count : 0;
+    }
+    
+    /**
+     * Get the earliest message timestamp
+     * @return Timestamp in milliseconds, or 0 if there are no messages
+     */
+    public long getFirstTimestamp() {
+        return getMessageCount() > 0 ? firstTimestamp.get() : 0;
+    }
+    
+    /**
+     * Get the latest message timestamp
+     * @return Timestamp in milliseconds, or 0 if there are no messages
+     */
+    public long getLastTimestamp() {
+        return getMessageCount() > 0 ? lastTimestamp.get() : 0;
+    }
+    
+    /**
+     * Get the number of messages sent in an hour of the day (local time)
+     * @param hour Hour from 0 to 23
+     * @return Message count
+     */
+    public long getMessagesInHour(int hour) {
+        return messagesByHour.get(hour);
+    }
+    
+    /**
+     * Get the hour of the day with the most messages
+     * @return Hour from 0 to 23
+     */
+    public int getBusiestHour() {
+        int busiest = 0;
+        for (int hour = 1; hour < 24; hour++) {
+            if (messagesByHour.get(hour) > messagesByHour.get(busiest)) {
+                busiest = hour;
+            }
+        }
+        return busiest;
+    }
+    
+    /**
+     * Get statistics for one user
+     * @param username The username
+     * @return The user's statistics (all zero if unknown)
+     */
+    public ParticipantStats getParticipant(String username) {
+        ParticipantStats stats = participants.get(username);
+        return stats != null ? stats : new ParticipantStats();
+    }
+    
+    /**
+     * Get every user who has sent at least one message
+     * @return List of usernames
+     */
+    public List<String> getSenders() {
+        List<String> senders = new ArrayList<>();
+        for (Map.Entry<String, ParticipantStats> entry : participants.entrySet()) {
+            if (entry.getValue().getMessages() > 0) {
+                senders.add(entry.getKey());
+            }
+        }
+        return senders;
+    }
+    
+    /**
+     * Get the most recent messages that contained a mention
+     * @param count Maximum number of messages
+     * @return List of messages, oldest first
+     */
+    public List<Message> getRecentMentions(int count) {
+        List<Message> mentions = new ArrayList<>(recentMentions);
+        if (mentions.size() <= count) {
+            return mentions;
+        }
+        return Collections.unmodifiableList(mentions.subList(mentions.size() - count, mentions.size()));
+    }
+    
+    /**
+     * Counters for one user
+     */
+    public static class ParticipantStats {
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder lengthSum = new LongAdder();
+        private final LongAdder mentionsMade = new LongAdder();
+        private final LongAdder timesMentioned = new LongAdder();
+        
+        public long getMessages() {
+            return messages.sum();
+        }
+        
+        public long getLengthSum() {
+            return lengthSum.sum();
+        }
+        
+        public long getMentionsMade() {
+            return mentionsMade.sum();
+        }
+        
+        public long getTimesMentioned() {
+            return timesMentioned.sum();
+        }
+        
+        private void add(ParticipantStats other) {
+            messages.add(other.getMessages());
+            lengthSum.add(other.getLengthSum());
+            mentionsMade.add(other.getMentionsMade());
+            timesMentioned.add(other.getTimesMentioned());
+        }
+    }
+}
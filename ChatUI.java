@@ -3,19 +3,32 @@ import java.awt.event.*;
 import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.function.LongSupplier;
 
 /**
  * Chat UI implementing MessageActions and NotificationHandler interfaces
  */
 public class ChatUI extends Frame implements MessageActions, NotificationHandler {
+    private static final LatencyHistogram loadTime = Metrics.histogram("ui.loadChatData");
+    private static final LatencyHistogram summaryTime = Metrics.histogram("ui.offlineSummary");
+    private static final LatencyHistogram appendTime = Metrics.histogram("ui.appendMessage");
+    private static final int SEARCH_LIMIT = 50;
+    
     private String currentUsername;
+    private ChatRoom room;
     private GroupChat groupChat;
     private long userLastSeen;
+    private ChatClient chatClient;
+    // Removed on logout; registered gauges would otherwise keep this window's chat alive
+    private final LongSupplier historySizeGauge;
+    private final LongSupplier offlineMentionsGauge;
     
     // UI Components
-    private TextArea chatArea;
+    private TranscriptView chatArea;
     private TextField messageField;
     private Button sendButton;
+    private TextField searchField;
+    private Button searchButton;
     private java.awt.List membersList;
     private Label topBarLabel;
     private Label statusLabel;
@@ -29,17 +42,36 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
     /**
      * Constructor for ChatUI
      * @param username The logged-in username
+     * @param room The room to show, already opened by {@link FileManager#openRoom(String)}
      */
-    public ChatUI(String username) {
+    public ChatUI(String username, ChatRoom room) {
         super("Group Chat - " + username);
         this.currentUsername = username;
-        this.groupChat = new GroupChat("Dev Team Chat");
+        this.room = room;
+        this.groupChat = room.getChat();
+        this.historySizeGauge = groupChat::getMessageCount;
+        this.offlineMentionsGauge = groupChat::getOfflineMentionCount;
+        Metrics.gauge("chat.historySize", historySizeGauge);
+        Metrics.gauge("chat.offlineMentions", offlineMentionsGauge);
         this.userLastSeen = FileManager.loadLastSeen(username);
         
+        // Report background save failures on the event thread
+        FileManager.setPersistenceCallback(new PersistenceCallback() {
+            public void batchPersisted(int messageCount, int mentionCount) {
+            }
+            
+            public void persistenceFailed(int messageCount, int mentionCount, IOException error) {
+                EventQueue.invokeLater(() -> showAlert("Error",
+                        "Failed to save " + messageCount + " message(s): " + error.getMessage()));
+            }
+        });
+        
         setupUI();
         setupEventHandlers();
         loadChatData();
-        checkNotifications();
+        // Offline mentions are looked up in the mention index, which is complete only after the backfill
+        room.whenBackfilled().thenRun(() -> EventQueue.invokeLater(this::checkNotifications));
+        connectToServer();
         
         // Window closing event
         addWindowListener(new WindowAdapter() {
@@ -64,7 +96,7 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         topPanel.setBackground(new Color(25, 118, 210)); // Professional blue
         topPanel.setPreferredSize(new Dimension(1000, 60));
         
-        topBarLabel = new Label("  💬 Dev Team Chat", Label.LEFT);
+        topBarLabel = new Label("  💬 " + room.getName(), Label.LEFT);
         topBarLabel.setFont(new Font("Arial", Font.BOLD, 20));
         topBarLabel.setForeground(Color.WHITE);
         
@@ -137,8 +169,23 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         chatLabelPanel.setBackground(new Color(236, 239, 241));
         chatLabelPanel.add(chatLabel, BorderLayout.WEST);
         
-        chatArea = new TextArea();
-        chatArea.setEditable(false);
+        searchField = new TextField(24);
+        searchField.setFont(new Font("SansSerif", Font.PLAIN, 12));
+        searchField.setBackground(Color.WHITE);
+        
+        searchButton = new Button("🔍 Search");
+        searchButton.setFont(new Font("Arial", Font.BOLD, 11));
+        searchButton.setBackground(new Color(33, 150, 243)); // Material blue
+        searchButton.setForeground(Color.WHITE);
+        
+        Panel searchPanel = new Panel();
+        searchPanel.setLayout(new FlowLayout(FlowLayout.RIGHT, 5, 2));
+        searchPanel.setBackground(new Color(236, 239, 241));
+        searchPanel.add(searchField);
+        searchPanel.add(searchButton);
+        chatLabelPanel.add(searchPanel, BorderLayout.EAST);
+        
+        chatArea = new TranscriptView(groupChat);
         chatArea.setFont(new Font("SansSerif", Font.PLAIN, 13));
         chatArea.setBackground(new Color(255, 255, 255)); // Clean white background
         
@@ -275,21 +322,31 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
                 }
             }
         });
+        
+        // Search button and Enter key on search field
+        searchButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                searchHandler();
+            }
+        });
+        
+        searchField.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    searchHandler();
+                }
+            }
+        });
     }
     
     /**
      * Load chat data (history, members, etc.)
      */
     private void loadChatData() {
-        // Load chat history
-        java.util.List<Message> messages = FileManager.loadChatHistory();
-        for (Message msg : messages) {
-            groupChat.addMessage(msg);
-            chatArea.append(msg.formatMessage() + "\n");
-        }
-        
-        // Auto-scroll to bottom
-        chatArea.setCaretPosition(chatArea.getText().length());
+        long start = System.nanoTime();
+        // The room loaded its history when it was opened; only the visible rows are drawn
+        chatArea.messagesAdded();
+        chatArea.scrollToBottom();
         
         // Load all users as members
         java.util.List<String> allUsers = FileManager.getAllUsers();
@@ -304,6 +361,19 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         
         // Update members list display
         updateMembersList();
+        loadTime.recordSince(start);
+    }
+    
+    /**
+     * Connect to the chat server named by the chat.server property (host:port), if any
+     */
+    private void connectToServer() {
+        try {
+            chatClient = ChatClient.connect(System.getProperty("chat.server"), currentUsername,
+                    room.getName(), this);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not connect to chat server: " + e.getMessage());
+        }
     }
     
     /**
@@ -322,18 +392,10 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
     private void checkNotifications() {
         // Check if user was offline and has unread messages
         if (userLastSeen > 0) {
-            java.util.List<Message> recentMessages = groupChat.getMessages();
-            java.util.List<Message> offlineMessages = new java.util.ArrayList<>();
-            
-            for (Message msg : recentMessages) {
-                if (msg.getTimestamp().getTime() > userLastSeen && 
-                    !msg.getSender().equals(currentUsername)) {
-                    offlineMessages.add(msg);
-                }
-            }
-            
-            if (!offlineMessages.isEmpty()) {
-                showOfflineMessagesSummary(offlineMessages);
+            // Counted straight from the history; offline messages are never copied out
+            ChatStatistics offlineStats = groupChat.statisticsSince(userLastSeen, currentUsername);
+            if (offlineStats.getMessageCount() > 0) {
+                showOfflineMessagesSummary(offlineStats);
             }
         }
         
@@ -363,7 +425,8 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
     /**
      * Show a comprehensive summary of offline messages
      */
-    private void showOfflineMessagesSummary(java.util.List<Message> offlineMessages) {
+    private void showOfflineMessagesSummary(ChatStatistics offlineStats) {
+        long start = System.nanoTime();
         StringBuilder summary = new StringBuilder();
         
         // Header
@@ -371,28 +434,15 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         summary.append("║   OFFLINE MESSAGES SUMMARY            ║\n");
         summary.append("╚═══════════════════════════════════════╝\n\n");
         
-        summary.append("📬 You received ").append(offlineMessages.size())
+        long offlineCount = offlineStats.getMessageCount();
+        summary.append("📬 You received ").append(offlineCount)
                .append(" message(s) while offline!\n\n");
         
-        // Count messages by sender
-        java.util.HashMap<String, Integer> senderCount = new java.util.HashMap<>();
-        java.util.HashMap<String, java.util.List<Message>> messagesBySender = new java.util.HashMap<>();
-        
-        for (Message msg : offlineMessages) {
-            String sender = msg.getSender();
-            senderCount.put(sender, senderCount.getOrDefault(sender, 0) + 1);
-            
-            if (!messagesBySender.containsKey(sender)) {
-                messagesBySender.put(sender, new java.util.ArrayList<>());
-            }
-            messagesBySender.get(sender).add(msg);
-        }
-        
         // Key Point 1: Message Distribution
         summary.append("📊 MESSAGE DISTRIBUTION:\n");
-        for (String sender : senderCount.keySet()) {
-            int count = senderCount.get(sender);
-            double percent = (count * 100.0 / offlineMessages.size());
+        for (String sender : offlineStats.getSenders()) {
+            long count = offlineStats.getParticipant(sender).getMessages();
+            double percent = (count * 100.0 / offlineCount);
             summary.append("   • ").append(sender).append(": ")
                    .append(count).append(" msg")
                    .append(count > 1 ? "s" : "")
@@ -403,9 +453,8 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         // Key Point 2: Important Messages (with mentions)
         summary.append("⚠️ IMPORTANT MESSAGES:\n");
         int importantCount = 0;
-        for (Message msg : offlineMessages) {
-            if (msg.hasMention() && msg.getMentionedUser() != null && 
-                msg.getMentionedUser().equals(currentUsername)) {
+        for (Message msg : groupChat.mentionsOf(currentUsername, userLastSeen)) {
+            if (!msg.getSender().equals(currentUsername)) {
                 importantCount++;
                 summary.append("   🔔 ").append(msg.getSender()).append(": ")
                        .append(msg.getContent()).append("\n");
@@ -418,16 +467,22 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         
         // Key Point 3: Recent Messages Preview
         summary.append("💬 RECENT MESSAGES:\n");
-        int previewCount = Math.min(5, offlineMessages.size());
-        int startIdx = Math.max(0, offlineMessages.size() - previewCount);
+        java.util.List<Message> since = groupChat.messagesSince(userLastSeen);
+        java.util.List<Message> preview = new java.util.ArrayList<>();
+        for (int i = since.size() - 1; i >= 0 && preview.size() < 5; i--) {
+            Message msg = since.get(i);
+            if (!msg.getSender().equals(currentUsername)) {
+                preview.add(0, msg);
+            }
+        }
         
-        for (int i = startIdx; i < offlineMessages.size(); i++) {
-            Message msg = offlineMessages.get(i);
+        for (int i = 0; i < preview.size(); i++) {
+            Message msg = preview.get(i);
             String content = msg.getContent();
             if (content.length() > 50) {
                 content = content.substring(0, 47) + "...";
             }
-            summary.append("   ").append(i - startIdx + 1).append(". ")
+            summary.append("   ").append(i + 1).append(". ")
                    .append(msg.getSender()).append(": ")
                    .append(content).append("\n");
         }
@@ -435,23 +490,72 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         
         // Key Point 4: Time Analysis
         summary.append("⏰ TIME ANALYSIS:\n");
-        long firstMsgTime = offlineMessages.get(0).getTimestamp().getTime();
-        long lastMsgTime = offlineMessages.get(offlineMessages.size() - 1).getTimestamp().getTime();
+        long firstMsgTime = offlineStats.getFirstTimestamp();
+        long lastMsgTime = offlineStats.getLastTimestamp();
         long timeDiff = (lastMsgTime - firstMsgTime) / 60000; // in minutes
         
         summary.append("   • First: ").append(new java.text.SimpleDateFormat("HH:mm")
-               .format(offlineMessages.get(0).getTimestamp())).append("\n");
+               .format(new Date(firstMsgTime))).append("\n");
         summary.append("   • Last: ").append(new java.text.SimpleDateFormat("HH:mm")
-               .format(offlineMessages.get(offlineMessages.size() - 1).getTimestamp())).append("\n");
+               .format(new Date(lastMsgTime))).append("\n");
         summary.append("   • Duration: ").append(timeDiff).append(" minute(s)\n\n");
         
         // Action prompt
         summary.append("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━\n");
         summary.append("💡 TIP: Scroll up in chat to see full history");
+        summaryTime.recordSince(start);
         
         showAlert("📨 Offline Messages Summary", summary.toString());
     }
     
+    /**
+     * Search the history for the words in the search field.
+     * Besides plain words and prefixes ("deploy*") the query may contain
+     * from:username, after:yyyy-MM-dd and before:yyyy-MM-dd.
+     */
+    private void searchHandler() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            return;
+        }
+        
+        StringBuilder words = new StringBuilder();
+        String sender = null;
+        long fromTime = Long.MIN_VALUE;
+        long toTime = Long.MAX_VALUE;
+        java.text.SimpleDateFormat dateFormat = new java.text.SimpleDateFormat("yyyy-MM-dd");
+        dateFormat.setLenient(false);
+        try {
+            for (String word : query.split("\\s+")) {
+                if (word.startsWith("from:")) {
+                    sender = word.substring(5);
+                } else if (word.startsWith("after:")) {
+                    fromTime = dateFormat.parse(word.substring(6)).getTime();
+                } else if (word.startsWith("before:")) {
+                    toTime = dateFormat.parse(word.substring(7)).getTime();
+                } else {
+                    words.append(word).append(' ');
+                }
+            }
+        } catch (java.text.ParseException e) {
+            showAlert("Search", "Dates must be written as yyyy-MM-dd: " + e.getMessage());
+            return;
+        }
+        
+        java.util.List<Message> results = groupChat.search(words.toString(), sender, fromTime, toTime, SEARCH_LIMIT);
+        if (results.isEmpty()) {
+            showAlert("🔍 Search", "No messages match \"" + query + "\"");
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(results.size() == SEARCH_LIMIT ? "Latest " + SEARCH_LIMIT : String.valueOf(results.size()))
+            .append(" message(s) matching \"").append(query).append("\":\n\n");
+        for (Message msg : results) {
+            text.append(msg.formatMessage()).append("\n");
+        }
+        showAlert("🔍 Search", text.toString());
+    }
+    
     /**
      * Handle sending a message
      */
@@ -470,24 +574,29 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
      */
     @Override
     public void sendMessage(Message message) {
-        // Add to group chat
-        groupChat.addMessage(message);
+        long start = System.nanoTime();
+        
+        // Add to the room; the disk write happens on the room's writer shard
+        try {
+            room.post(message);
+        } catch (IOException e) {
+            showAlert("Error", "Failed to save message: " + e.getMessage());
+        }
         
         // Display in chat area
-        chatArea.append(message.formatMessage() + "\n");
-        chatArea.setCaretPosition(chatArea.getText().length());
+        chatArea.messagesAdded();
+        appendTime.recordSince(start);
+        
+        // Share with other connected clients
+        if (chatClient != null) {
+            chatClient.send(message);
+        }
         
-        // Save to file
         try {
-            FileManager.saveMessage(message);
-            
-            // If message has mention, save it for offline users
-            if (message.hasMention()) {
-                String mentionedUser = message.getMentionedUser();
-                
-                // Save mention for users who are not the current user
+            // Save a mention for every mentioned user other than the current user
+            for (String mentionedUser : message.getMentionedUsers()) {
                 if (!mentionedUser.equals(currentUsername)) {
-                    FileManager.saveMention(mentionedUser, message.formatMessage());
+                    FileManager.saveMentionAsync(mentionedUser, message.formatMessage());
                 }
             }
             
@@ -501,9 +610,18 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
      */
     @Override
     public void receiveMessage(Message message) {
+        long start = System.nanoTime();
+        
+        // Log it like a local post so message ids stay equal to log positions
+        try {
+            room.post(message);
+        } catch (IOException e) {
+            showAlert("Error", "Failed to save received message: " + e.getMessage());
+        }
+        
         // Display received message
-        chatArea.append(message.formatMessage() + "\n");
-        chatArea.setCaretPosition(chatArea.getText().length());
+        chatArea.messagesAdded();
+        appendTime.recordSince(start);
     }
     
     /**
@@ -555,7 +673,7 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
      */
     @Override
     public String summarizeMessages(String username) {
-        java.util.List<Message> messages = groupChat.getMessages();
+        java.util.List<Message> messages = groupChat.messagesSince(userLastSeen);
         int count = 0;
         StringBuilder summary = new StringBuilder();
         
@@ -591,11 +709,11 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
             messageField.setEnabled(true);
             sendButton.setEnabled(true);
             
-            // Check for new mentions while offline
-            checkOfflineMentions();
-            
-            // Check for notifications when coming back online
-            checkNotifications();
+            // Check for new mentions while offline, and other notifications, once every message is counted
+            room.whenBackfilled().thenRun(() -> EventQueue.invokeLater(() -> {
+                checkOfflineMentions();
+                checkNotifications();
+            }));
             
         } else {
             statusLabel.setText("Status: Offline  ");
@@ -631,20 +749,18 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
      * Check for mentions that occurred while user was offline
      */
     private void checkOfflineMentions() {
-        java.util.List<Message> messages = groupChat.getMessages();
+        java.util.List<Message> messages = groupChat.mentionsOf(currentUsername, userLastSeen);
         java.util.List<String> offlineMentionsList = new java.util.ArrayList<>();
         
-        // Check messages after user went offline
+        // Mentions of this user after they went offline, straight from the mention index
         for (Message msg : messages) {
             if (msg.getTimestamp().getTime() > userLastSeen && 
-                !msg.getSender().equals(currentUsername) &&
-                msg.hasMention() && 
-                msg.getMentionedUser() != null &&
-                msg.getMentionedUser().equals(currentUsername)) {
+                !msg.getSender().equals(currentUsername)) {
                 
                 offlineMentionsList.add(msg.formatMessage());
                 
-                // Save to file for persistence
+                // Saved synchronously: checkNotifications loads and clears the inbox right after,
+                // and a mention still queued on the background writer would land after the clear
                 try {
                     FileManager.saveMention(currentUsername, msg.formatMessage());
                 } catch (IOException e) {
@@ -676,9 +792,10 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
      * Show a summary of the chat messages
      */
     private void showChatSummary() {
-        java.util.List<Message> messages = groupChat.getMessages();
+        ChatStatistics stats = groupChat.getStatistics();
+        long totalMessages = stats.getMessageCount();
         
-        if (messages.isEmpty()) {
+        if (totalMessages == 0) {
             showAlert("Chat Summary - Key Points", "No messages in chat yet!");
             return;
         }
@@ -691,13 +808,18 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         
         // Key Point 1: Overall Statistics
         summary.append("📈 KEY POINT 1: OVERALL STATISTICS\n");
-        summary.append("   • Total Messages: ").append(messages.size()).append("\n");
+        summary.append("   • Total Messages: ").append(totalMessages).append("\n");
         summary.append("   • Active Members: ").append(groupChat.getMembers().size()).append("\n");
+        int remaining = groupChat.getBackfillRemaining();
+        if (remaining > 0) {
+            // Older pages are still being counted in the background
+            summary.append("   • Still counting: ").append(remaining).append(" older message(s)\n");
+        }
         
         // Calculate time span
-        if (messages.size() > 1) {
-            long firstTime = messages.get(0).getTimestamp().getTime();
-            long lastTime = messages.get(messages.size() - 1).getTimestamp().getTime();
+        if (totalMessages > 1) {
+            long firstTime = stats.getFirstTimestamp();
+            long lastTime = stats.getLastTimestamp();
             long hours = (lastTime - firstTime) / (1000 * 60 * 60);
             long minutes = ((lastTime - firstTime) / (1000 * 60)) % 60;
             
@@ -708,21 +830,18 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
             summary.append(minutes).append("m\n");
             
             summary.append("   • Started: ").append(new java.text.SimpleDateFormat("MMM dd, HH:mm")
-                   .format(messages.get(0).getTimestamp())).append("\n");
+                   .format(new Date(firstTime))).append("\n");
         }
         summary.append("\n");
         
         // Key Point 2: Participant Activity
         summary.append("👥 KEY POINT 2: PARTICIPANT ACTIVITY\n");
-        java.util.HashMap<String, Integer> userMessageCount = new java.util.HashMap<>();
+        java.util.List<String> senders = stats.getSenders();
         String mostActiveUser = "";
-        int maxMessages = 0;
+        long maxMessages = 0;
         
-        for (Message msg : messages) {
-            String sender = msg.getSender();
-            int count = userMessageCount.getOrDefault(sender, 0) + 1;
-            userMessageCount.put(sender, count);
-            
+        for (String sender : senders) {
+            long count = stats.getParticipant(sender).getMessages();
             if (count > maxMessages) {
                 maxMessages = count;
                 mostActiveUser = sender;
@@ -733,9 +852,9 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
                .append(" (").append(maxMessages).append(" messages)\n");
         
         // Show all participants with engagement bars
-        for (String user : userMessageCount.keySet()) {
-            int count = userMessageCount.get(user);
-            double percent = (count * 100.0 / messages.size());
+        for (String user : senders) {
+            long count = stats.getParticipant(user).getMessages();
+            double percent = (count * 100.0 / totalMessages);
             String bar = getProgressBar(percent);
             String indicator = user.equals(currentUsername) ? " (YOU)" : "";
             
@@ -747,49 +866,30 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         
         // Key Point 3: Communication Patterns
         summary.append("💬 KEY POINT 3: COMMUNICATION PATTERNS\n");
-        int totalMentions = 0;
-        int questionsAsked = 0;
-        int longMessages = 0;
-        
-        for (Message msg : messages) {
-            if (msg.hasMention()) totalMentions++;
-            if (msg.getContent().contains("?")) questionsAsked++;
-            if (msg.getContent().length() > 100) longMessages++;
-        }
+        long totalMentions = stats.getMentionCount();
+        long questionsAsked = stats.getQuestionCount();
+        long longMessages = stats.getLongMessageCount();
         
         summary.append("   • Total Mentions: ").append(totalMentions).append("\n");
         summary.append("   • Questions Asked: ").append(questionsAsked).append("\n");
         summary.append("   • Detailed Messages: ").append(longMessages)
                .append(" (>100 chars)\n");
         
-        double avgLength = 0;
-        for (Message msg : messages) {
-            avgLength += msg.getContent().length();
-        }
-        avgLength /= messages.size();
+        double avgLength = stats.getAverageLength();
         summary.append("   • Avg Message Length: ")
-               .append(String.format("%.0f", avgLength)).append(" chars\n\n");
+               .append(String.format("%.0f", avgLength)).append(" chars\n");
+        int busiestHour = stats.getBusiestHour();
+        summary.append("   • Busiest Hour: ").append(String.format("%02d:00", busiestHour))
+               .append(" (").append(stats.getMessagesInHour(busiestHour)).append(" messages)\n\n");
         
         // Key Point 4: Your Involvement
         summary.append("🎯 KEY POINT 4: YOUR INVOLVEMENT\n");
-        int myMessages = userMessageCount.getOrDefault(currentUsername, 0);
-        int myMentions = 0;
-        int mentionsByMe = 0;
+        ChatStatistics.ParticipantStats myStats = stats.getParticipant(currentUsername);
+        long myMessages = myStats.getMessages();
+        long myMentions = myStats.getTimesMentioned();
+        long mentionsByMe = myStats.getMentionsMade();
         
-        for (Message msg : messages) {
-            if (msg.hasMention()) {
-                if (msg.getMentionedUser() != null) {
-                    if (msg.getMentionedUser().equals(currentUsername)) {
-                        myMentions++;
-                    }
-                    if (msg.getSender().equals(currentUsername)) {
-                        mentionsByMe++;
-                    }
-                }
-            }
-        }
-        
-        double participation = !messages.isEmpty() ? (myMessages * 100.0 / messages.size()) : 0;
+        double participation = myMessages * 100.0 / totalMessages;
         summary.append("   • Your Messages: ").append(myMessages)
                .append(" (").append(String.format("%.1f", participation)).append("%)\n");
         summary.append("   • Times Mentioned: ").append(myMentions).append("\n");
@@ -806,13 +906,8 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         // Key Point 5: Important Topics
         summary.append("🔑 KEY POINT 5: IMPORTANT TOPICS\n");
         
-        // Find messages with mentions (important)
-        java.util.List<Message> importantMsgs = new java.util.ArrayList<>();
-        for (Message msg : messages) {
-            if (msg.hasMention()) {
-                importantMsgs.add(msg);
-            }
-        }
+        // Most recent messages with mentions (important)
+        java.util.List<Message> importantMsgs = stats.getRecentMentions(3);
         
         if (importantMsgs.isEmpty()) {
             summary.append("   • No tagged discussions\n");
@@ -835,9 +930,7 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
         // Key Point 6: Recent Activity
         summary.append("⭐ KEY POINT 6: RECENT ACTIVITY\n");
         summary.append("   Latest 5 messages:\n");
-        int startIdx = Math.max(0, messages.size() - 5);
-        for (int i = startIdx; i < messages.size(); i++) {
-            Message msg = messages.get(i);
+        for (Message msg : groupChat.getRecentMessages(5)) {
             String content = msg.getContent();
             if (content.length() > 45) {
                 content = content.substring(0, 42) + "...";
@@ -865,11 +958,11 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
             summary.append("   📌 People are mentioning you - respond back!\n");
         }
         
-        if (totalMentions > messages.size() * 0.3) {
+        if (totalMentions > totalMessages * 0.3) {
             summary.append("   📌 Highly collaborative conversation\n");
         }
         
-        if (questionsAsked > messages.size() * 0.2) {
+        if (questionsAsked > totalMessages * 0.2) {
             summary.append("   📌 Active problem-solving discussion\n");
         }
         
@@ -985,6 +1078,10 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
      * Perform the actual logout
      */
     private void performLogout() {
+        if (chatClient != null) {
+            chatClient.close();
+        }
+        
         try {
             // Save last seen time
             FileManager.saveLastSeen(currentUsername, new Date().getTime());
@@ -992,6 +1089,11 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
             System.err.println("Error saving last seen: " + e.getMessage());
         }
         
+        // Write pending messages and save the search index
+        FileManager.closeRoom(room.getName());
+        Metrics.removeGauge("chat.historySize", historySizeGauge);
+        Metrics.removeGauge("chat.offlineMentions", offlineMentionsGauge);
+        
         // Close chat window
         this.dispose();
         
@@ -1004,6 +1106,10 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
      * Handle user logout
      */
     private void handleLogout() {
+        if (chatClient != null) {
+            chatClient.close();
+        }
+        
         try {
             // Save last seen time
             FileManager.saveLastSeen(currentUsername, new Date().getTime());
@@ -1011,6 +1117,11 @@ public class ChatUI extends Frame implements MessageActions, NotificationHandler
             System.err.println("Error saving last seen: " + e.getMessage());
         }
         
+        // Write pending messages and save the search index
+        FileManager.closeRoom(room.getName());
+        Metrics.removeGauge("chat.historySize", historySizeGauge);
+        Metrics.removeGauge("chat.offlineMentions", offlineMentionsGauge);
+        
         System.exit(0);
     }
 }
@@ -0,0 +1,272 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Message history stored as primitive columns instead of Message objects.
+ * Each message costs about 21 bytes (timestamp, sender id, content end, mention
+ * end and a flags byte) plus its UTF-8 content in one shared byte arena and 4 bytes
+ * per mentioned user, against roughly 150 bytes of objects in a MessageStore.
+ * Messages are built on demand when read. Aggregates such as
+ * {@link #statistics(int, int, int)} run over the arrays directly.
+ * <p>
+ * Appends are serialized; readers never lock. A volatile size publishes each
+ * append, and grown arrays keep every published element, so readers below the
+ * size always see complete messages.
+ */
+public class ColumnarHistory implements MessageHistory {
+    private static final int FLAG_MENTION = 1;
+    private static final int FLAG_QUESTION = 2;
+    private static final int FLAG_ASCII = 4;
+    private static final int BLOCK_BITS = 6; // Running-max timestamp kept per 64 messages
+    private static final int MAX_ARENA_BYTES = Integer.MAX_VALUE - 8;
+    
+    private long[] timestamps;
+    private int[] senders;
+    private int[] contentEnds;
+    private int[] mentionEnds;
+    private byte[] flags;
+    private byte[] arena;
+    private int arenaSize;
+    private int[] mentionTargets;
+    private int mentionCount;
+    private long[] blockMaxTimestamps;
+    private volatile int size;
+    
+    /**
+     * Constructor for ColumnarHistory
+     */
+    public ColumnarHistory() {
+        this(1024);
+    }
+    
+    /**
+     * Constructor for ColumnarHistory
+     * @param initialCapacity Number of messages to allocate room for
+     */
+    public ColumnarHistory(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        this.timestamps = new long[capacity];
+        this.senders = new int[capacity];
+        this.contentEnds = new int[capacity];
+        this.mentionEnds = new int[capacity];
+        this.flags = new byte[capacity];
+        this.arena = new byte[capacity * 64];
+        this.mentionTargets = new int[16];
+        this.blockMaxTimestamps = new long[(capacity >>> BLOCK_BITS) + 1];
+    }
+    
+    @Override
+    public synchronized int append(Message message) {
+        int index = size;
+        if (index == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Message history is full");
+        }
+        if (index == timestamps.length) {
+            growColumns();
+        }
+        
+        String content = message.getContent();
+        int bytes = MessageCodec.utf8Length(content);
+        if (bytes > MAX_ARENA_BYTES - arenaSize) {
+            throw new IllegalStateException("Message history content is full");
+        }
+        if (arenaSize + bytes > arena.length) {
+            long grown = Math.max((long) arenaSize + bytes, (long) arena.length * 2);
+            arena = Arrays.copyOf(arena, (int) Math.min(grown, MAX_ARENA_BYTES));
+        }
+        arenaSize = MessageCodec.putUtf8(arena, arenaSize, content);
+        
+        int[] mentioned = message.getMentionedUserIds();
+        if (mentionCount + mentioned.length > mentionTargets.length) {
+            mentionTargets = Arrays.copyOf(mentionTargets,
+                    Math.max(mentionCount + mentioned.length, mentionTargets.length * 2));
+        }
+        System.arraycopy(mentioned, 0, mentionTargets, mentionCount, mentioned.length);
+        mentionCount += mentioned.length;
+        
+        long time = message.getTimestamp().getTime();
+        int flag = (message.hasMention() ? FLAG_MENTION : 0)
+                | (content.indexOf('?') >= 0 ? FLAG_QUESTION : 0)
+                | (bytes == content.length() ? FLAG_ASCII : 0);
+        timestamps[index] = time;
+        senders[index] = message.getSenderId();
+        contentEnds[index] = arenaSize;
+        mentionEnds[index] = mentionCount;
+        flags[index] = (byte) flag;
+        
+        int block = index >>> BLOCK_BITS;
+        if (block == blockMaxTimestamps.length) {
+            blockMaxTimestamps = Arrays.copyOf(blockMaxTimestamps, block * 2);
+        }
+        long previous;
+        if ((index & ((1 << BLOCK_BITS) - 1)) != 0) {
+            previous = blockMaxTimestamps[block];
+        } else {
+            previous = block == 0 ? Long.MIN_VALUE : blockMaxTimestamps[block - 1];
+        }
+        blockMaxTimestamps[block] = Math.max(previous, time);
+        
+        size = index + 1;
+        return index;
+    }
+    
+    private void growColumns() {
+        long grown = Math.min((long) timestamps.length * 2, Integer.MAX_VALUE);
+        int capacity = (int) grown;
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        senders = Arrays.copyOf(senders, capacity);
+        contentEnds = Arrays.copyOf(contentEnds, capacity);
+        mentionEnds = Arrays.copyOf(mentionEnds, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+    }
+    
+    /**
+     * Build a Message view of one row
+     * @param index The message index
+     * @return A new Message holding the row's values
+     */
+    @Override
+    public Message get(int index) {
+        checkIndex(index);
+        int start = index == 0 ? 0 : contentEnds[index - 1];
+        String content = new String(arena, start, contentEnds[index] - start, StandardCharsets.UTF_8);
+        return new Message(senders[index], content, new Date(timestamps[index]));
+    }
+    
+    /**
+     * Get a message's timestamp without building the message
+     * @param index The message index
+     * @return Timestamp in milliseconds
+     */
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+    
+    /**
+     * Get a message's sender without building the message
+     * @param index The message index
+     * @return The sender's SymbolTable id
+     */
+    public int getSenderId(int index) {
+        checkIndex(index);
+        return senders[index];
+    }
+    
+    /**
+     * Check whether a message mentions a user, without building the message
+     * @param index The message index
+     * @param userId The user's SymbolTable id
+     * @return true if the message mentions the user
+     */
+    public boolean mentions(int index, int userId) {
+        checkIndex(index);
+        int[] targets = mentionTargets;
+        for (int i = index == 0 ? 0 : mentionEnds[index - 1]; i < mentionEnds[index]; i++) {
+            if (targets[i] == userId) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public int indexAfter(long time) {
+        int count = size;
+        long[] times = timestamps;
+        long[] blockMax = blockMaxTimestamps;
+        int blocks = (count + (1 << BLOCK_BITS) - 1) >>> BLOCK_BITS;
+        
+        // First block whose running maximum passes the time
+        int lo = 0;
+        int hi = blocks;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockMax[mid] > time) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        if (lo == blocks) {
+            return count;
+        }
+        
+        long running = lo == 0 ? Long.MIN_VALUE : blockMax[lo - 1];
+        int end = Math.min(count, (lo + 1) << BLOCK_BITS);
+        for (int i = lo << BLOCK_BITS; i < end; i++) {
+            running = Math.max(running, times[i]);
+            if (running > time) {
+                return i;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Count a range of messages straight from the columns. A Message is built
+     * only for rows with a mention, which the mention counters need.
+     */
+    @Override
+    public ChatStatistics statistics(int from, int to, int excludedSenderId) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + " to " + to);
+        }
+        long[] times = timestamps;
+        int[] senderIds = senders;
+        int[] ends = contentEnds;
+        byte[] rowFlags = flags;
+        byte[] bytes = arena;
+        
+        ChatStatistics statistics = new ChatStatistics();
+        for (int i = from; i < to; i++) {
+            if (senderIds[i] == excludedSenderId) {
+                continue;
+            }
+            int start = i == 0 ? 0 : ends[i - 1];
+            int flag = rowFlags[i];
+            int length = (flag & FLAG_ASCII) != 0 ? ends[i] - start : charCount(bytes, start, ends[i]);
+            statistics.record(times[i], senderIds[i], length, (flag & FLAG_QUESTION) != 0);
+            if ((flag & FLAG_MENTION) != 0) {
+                statistics.recordMention(get(i));
+            }
+        }
+        return statistics;
+    }
+    
+    /**
+     * Count the UTF-16 chars encoded by a UTF-8 range
+     */
+    private static int charCount(byte[] bytes, int start, int end) {
+        int chars = 0;
+        for (int i = start; i < end; i++) {
+            int b = bytes[i] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                chars += (b & 0xF8) == 0xF0 ? 2 : 1;
+            }
+        }
+        return chars;
+    }
+    
+    /**
+     * Get the bytes used by the columns and content, excluding spare capacity
+     * @return Approximate heap bytes in use
+     */
+    public long getUsedBytes() {
+        int count = size;
+        return count * 21L + arenaSize + mentionCount * 4L
+                + ((count >>> BLOCK_BITS) + 1) * 8L;
+    }
+}
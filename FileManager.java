@@ -1,6 +1,8 @@
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages file operations for users, chat history, and mentions
@@ -10,6 +12,45 @@ public class FileManager {
     private static final String CHAT_HISTORY_FILE = "chat_history.txt";
     private static final String MENTIONS_FILE = "mentions.txt";
     private static final String LAST_SEEN_FILE = "last_seen.txt";
+    private static final String LAST_SEEN_STORE = "last_seen.dat";
+    private static final String CHAT_LOG_DIR = "chat_history";
+    private static final String MENTIONS_DIR = "mentions";
+    private static final String SEARCH_INDEX_FILE = "chat_history.idx";
+    private static final String CHECKPOINT_FILE = "chat_history.ckpt";
+    private static final String ROOMS_DIR = "rooms";
+    
+    /** The room that keeps the original chat_history log */
+    public static final String DEFAULT_ROOM = "Dev Team Chat";
+    // Data files live in the working directory unless chat.dir names another one
+    private static final File DATA_DIR = new File(System.getProperty("chat.dir", "."));
+    
+    private static final UserRepository users = new UserRepository(new File(DATA_DIR, USERS_FILE));
+    // Successful logins are remembered for chat.auth.cacheSeconds (default 5 minutes)
+    private static final VerificationCache verifiedLogins =
+            new VerificationCache(Long.getLong("chat.auth.cacheSeconds", 300) * 1000);
+    // Time spent in each public operation, published through Metrics
+    private static final LatencyHistogram registerTime = Metrics.histogram("file.registerUser");
+    private static final LatencyHistogram validateTime = Metrics.histogram("file.validateUser");
+    private static final LatencyHistogram saveMessageTime = Metrics.histogram("file.saveMessage");
+    private static final LatencyHistogram saveMessageAsyncTime = Metrics.histogram("file.saveMessageAsync");
+    private static final LatencyHistogram loadChatHistoryTime = Metrics.histogram("file.loadChatHistory");
+    private static final LatencyHistogram loadRecentTime = Metrics.histogram("file.loadRecentMessages");
+    private static final LatencyHistogram loadBetweenTime = Metrics.histogram("file.loadMessagesBetween");
+    private static final LatencyHistogram saveMentionTime = Metrics.histogram("file.saveMention");
+    private static final LatencyHistogram saveMentionAsyncTime = Metrics.histogram("file.saveMentionAsync");
+    private static final LatencyHistogram loadMentionsTime = Metrics.histogram("file.loadMentions");
+    private static final LatencyHistogram clearMentionsTime = Metrics.histogram("file.clearMentions");
+    private static final LatencyHistogram saveLastSeenTime = Metrics.histogram("file.saveLastSeen");
+    private static final LatencyHistogram loadLastSeenTime = Metrics.histogram("file.loadLastSeen");
+    private static final LatencyHistogram openRoomTime = Metrics.histogram("file.openRoom");
+    private static final LatencyHistogram closeRoomTime = Metrics.histogram("file.closeRoom");
+    private static MessageLog messageLog;
+    private static PersistenceWriter persistenceWriter;
+    private static PersistenceCallback persistenceCallback;
+    private static LastSeenStore lastSeenStore;
+    private static MentionInbox mentionInbox;
+    private static RoomRegistry roomRegistry;
+    private static HistoryCompactor historyCompactor;
     
     /**
      * Register a new user
@@ -19,16 +60,14 @@ public class FileManager {
      * @throws IllegalArgumentException If user already exists
      */
     public static void registerUser(String username, String password) throws IOException {
-        // Check if user already exists
-        if (userExists(username)) {
-            throw new IllegalArgumentException("User already exists!");
-        }
-        
-        // Append user to file
-        try (FileWriter fw = new FileWriter(USERS_FILE, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println(username + "|" + password);
+        long start = System.nanoTime();
+        try {
+            // Hash before taking the index lock; existence check and append both go through the index
+            users.register(username, PasswordHasher.hash(password));
+            // Known from now on, so mentions of the new user are recognised
+            SymbolTable.intern(username);
+        } finally {
+            registerTime.recordSince(start);
         }
     }
     
@@ -40,21 +79,31 @@ public class FileManager {
      * @throws IOException If file operation fails
      */
     public static boolean validateUser(String username, String password) throws IOException {
-        File file = new File(USERS_FILE);
-        if (!file.exists()) {
-            return false;
-        }
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(USERS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length == 2 && parts[0].equals(username) && parts[1].equals(password)) {
-                    return true;
+        long start = System.nanoTime();
+        try {
+            String stored = users.getCredential(username);
+            if (stored == null) {
+                return false;
+            }
+            if (verifiedLogins.isVerified(username, password, stored)) {
+                return true;
+            }
+            if (!PasswordHasher.verify(password, stored)) {
+                return false;
+            }
+            
+            // Upgrade plaintext and outdated hashes on the first successful login
+            if (PasswordHasher.needsRehash(stored)) {
+                String rehashed = PasswordHasher.hash(password);
+                if (users.updateCredential(username, stored, rehashed)) {
+                    stored = rehashed;
                 }
             }
+            verifiedLogins.remember(username, password, stored);
+            return true;
+        } finally {
+            validateTime.recordSince(start);
         }
-        return false;
     }
     
     /**
@@ -63,35 +112,235 @@ public class FileManager {
      * @return true if user exists
      */
     public static boolean userExists(String username) {
-        File file = new File(USERS_FILE);
-        if (!file.exists()) {
+        try {
+            return users.exists(username);
+        } catch (IOException e) {
             return false;
         }
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(USERS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 1 && parts[0].equals(username)) {
-                    return true;
+    }
+    
+    /**
+     * Get the shared message log, opening it on first use.
+     * A legacy chat_history.txt is imported once and renamed. Segments are read
+     * memory-mapped unless the chat.mmap system property is false.
+     * @return The message log
+     * @throws IOException If the log cannot be opened
+     */
+    static synchronized MessageLog getMessageLog() throws IOException {
+        if (messageLog == null) {
+            messageLog = new MessageLog(new File(DATA_DIR, CHAT_LOG_DIR));
+            messageLog.setMemoryMapped(Boolean.parseBoolean(System.getProperty("chat.mmap", "true")));
+            
+            File legacy = new File(DATA_DIR, CHAT_HISTORY_FILE);
+            if (legacy.exists() && messageLog.size() == 0) {
+                messageLog.importLegacy(legacy);
+                if (!legacy.renameTo(new File(DATA_DIR, CHAT_HISTORY_FILE + ".imported"))) {
+                    System.err.println("Could not rename imported " + CHAT_HISTORY_FILE);
                 }
             }
-        } catch (IOException e) {
-            return false;
+            
+            // Flush the long-lived writers when the application exits
+            Runtime.getRuntime().addShutdownHook(new Thread(FileManager::shutdown));
         }
-        return false;
+        return messageLog;
     }
     
     /**
-     * Save a message to chat history
+     * Get the background persistence writer, starting it on first use.
+     * The durability mode comes from the chat.durability system property
+     * (none, batch or message) and defaults to batch.
+     * @return The persistence writer
+     * @throws IOException If the message log cannot be opened
+     */
+    static synchronized PersistenceWriter getPersistenceWriter() throws IOException {
+        if (persistenceWriter == null) {
+            persistenceWriter = new PersistenceWriter(getMessageLog(), getMentionInbox(), durability());
+            Metrics.gauge("persistence.queueDepth", persistenceWriter::getPendingCount);
+            persistenceWriter.setCallback(persistenceCallback);
+        }
+        return persistenceWriter;
+    }
+    
+    /**
+     * Read the durability mode from the chat.durability system property
+     * (none, batch or message); defaults to batch
+     */
+    private static PersistenceWriter.Durability durability() {
+        String mode = System.getProperty("chat.durability", "batch");
+        if (mode.equalsIgnoreCase("none")) {
+            return PersistenceWriter.Durability.NONE;
+        } else if (mode.equalsIgnoreCase("message")) {
+            return PersistenceWriter.Durability.PER_MESSAGE;
+        }
+        return PersistenceWriter.Durability.BATCH;
+    }
+    
+    /**
+     * Get the room registry, creating it on first use.
+     * The default room keeps the original chat_history log, index and checkpoint;
+     * every other room gets a partition under rooms/. The number of writer shards
+     * comes from the chat.rooms.shards system property and defaults to one per
+     * processor; open rooms are checkpointed every chat.checkpoint.seconds
+     * (default 5 minutes, 0 for only on close).
+     * <p>
+     * Rooms keep chat.retention.days of history and at most chat.retention.mb
+     * megabytes of log each (0, the default, for no limit). A background compactor
+     * applies that retention to the open rooms, compresses their closed log segments
+     * and purges consumed mention inboxes every chat.compact.seconds (default 10
+     * minutes, 0 to disable). Unread inboxes are only purged when
+     * chat.mentions.maxAgeDays is set, once they are that old.
+     * @return The room registry
+     * @throws IOException If the default room's message log cannot be opened
+     */
+    static synchronized RoomRegistry getRoomRegistry() throws IOException {
+        if (roomRegistry == null) {
+            // Messages only recognise mentions of known names, so registered users are
+            // interned once before any room loads; registerUser interns new ones
+            for (String username : getAllUsers()) {
+                SymbolTable.intern(username);
+            }
+            int shards = Integer.getInteger("chat.rooms.shards", Runtime.getRuntime().availableProcessors());
+            long checkpointSeconds = Long.getLong("chat.checkpoint.seconds", 300);
+            RoomRegistry registry = new RoomRegistry(new File(DATA_DIR, ROOMS_DIR), shards, durability(),
+                    checkpointSeconds);
+            registry.attach(DEFAULT_ROOM, getMessageLog(), new File(DATA_DIR, SEARCH_INDEX_FILE),
+                    new File(DATA_DIR, CHECKPOINT_FILE));
+            long maxAgeMillis = TimeUnit.DAYS.toMillis(Long.getLong("chat.retention.days", 0));
+            registry.setRetention(maxAgeMillis, Long.getLong("chat.retention.mb", 0) * 1024 * 1024);
+            registry.setCallback(persistenceCallback);
+            Metrics.gauge("rooms.open", () -> registry.getRooms().size());
+            Metrics.gauge("rooms.queueDepth", registry::getPendingCount);
+            roomRegistry = registry;
+            
+            long compactSeconds = Long.getLong("chat.compact.seconds", 600);
+            if (compactSeconds > 0) {
+                long mentionMaxAgeMillis = TimeUnit.DAYS.toMillis(Long.getLong("chat.mentions.maxAgeDays", 0));
+                historyCompactor = new HistoryCompactor(registry, getMentionInbox(), mentionMaxAgeMillis);
+                historyCompactor.start(compactSeconds);
+            }
+        }
+        return roomRegistry;
+    }
+    
+    /**
+     * Set the callback notified when background writes complete or fail
+     * @param callback The callback, or null to remove it
+     */
+    public static synchronized void setPersistenceCallback(PersistenceCallback callback) {
+        persistenceCallback = callback;
+        if (persistenceWriter != null) {
+            persistenceWriter.setCallback(callback);
+        }
+        if (roomRegistry != null) {
+            roomRegistry.setCallback(callback);
+        }
+    }
+    
+    /**
+     * Get the per-user mention inboxes, creating them on first use.
+     * A legacy mentions.txt is split into inboxes once and renamed.
+     * @return The mention inbox
+     * @throws IOException If the inbox directory cannot be created
+     */
+    static synchronized MentionInbox getMentionInbox() throws IOException {
+        if (mentionInbox == null) {
+            mentionInbox = new MentionInbox(new File(DATA_DIR, MENTIONS_DIR));
+            
+            File legacy = new File(DATA_DIR, MENTIONS_FILE);
+            if (legacy.exists()) {
+                mentionInbox.importLegacy(legacy);
+                if (!legacy.renameTo(new File(DATA_DIR, MENTIONS_FILE + ".imported"))) {
+                    System.err.println("Could not rename imported " + MENTIONS_FILE);
+                }
+            }
+        }
+        return mentionInbox;
+    }
+    
+    /**
+     * Get the last-seen store, opening it on first use.
+     * A legacy last_seen.txt is imported once and renamed.
+     * @return The last-seen store
+     * @throws IOException If the store cannot be opened
+     */
+    static synchronized LastSeenStore getLastSeenStore() throws IOException {
+        if (lastSeenStore == null) {
+            File storeFile = new File(DATA_DIR, LAST_SEEN_STORE);
+            boolean created = !storeFile.exists();
+            lastSeenStore = new LastSeenStore(storeFile);
+            
+            File legacy = new File(DATA_DIR, LAST_SEEN_FILE);
+            if (created && legacy.exists()) {
+                lastSeenStore.importLegacy(legacy);
+                if (!legacy.renameTo(new File(DATA_DIR, LAST_SEEN_FILE + ".imported"))) {
+                    System.err.println("Could not rename imported " + LAST_SEEN_FILE);
+                }
+            }
+        }
+        return lastSeenStore;
+    }
+    
+    /**
+     * Drain pending background writes and close the message log
+     */
+    static synchronized void shutdown() {
+        if (historyCompactor != null) {
+            historyCompactor.close();
+            historyCompactor = null;
+        }
+        if (roomRegistry != null) {
+            roomRegistry.close();
+            roomRegistry = null;
+        }
+        if (persistenceWriter != null) {
+            persistenceWriter.close();
+            persistenceWriter = null;
+        }
+        if (messageLog != null) {
+            try {
+                messageLog.close();
+            } catch (IOException e) {
+                System.err.println("Error closing message log: " + e.getMessage());
+            }
+        }
+        if (lastSeenStore != null) {
+            try {
+                lastSeenStore.close();
+            } catch (IOException e) {
+                System.err.println("Error closing last seen store: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Post a message to the default room and write it before returning.
+     * The default room owns the message log, so messages go through it and
+     * its chat sees every message the log holds.
      * @param message The message to save
-     * @throws IOException If file operation fails
+     * @throws IOException If the room cannot be opened or queueing is interrupted
      */
     public static void saveMessage(Message message) throws IOException {
-        try (FileWriter fw = new FileWriter(CHAT_HISTORY_FILE, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println(message.toFileFormat());
+        long start = System.nanoTime();
+        try {
+            ChatRoom room = openRoom(DEFAULT_ROOM);
+            room.post(message);
+            room.flush();
+        } finally {
+            saveMessageTime.recordSince(start);
+        }
+    }
+    
+    /**
+     * Post a message to the default room, to be written by the room's writer shard
+     * @param message The message to save
+     * @throws IOException If the room cannot be opened or queueing is interrupted
+     */
+    public static void saveMessageAsync(Message message) throws IOException {
+        long start = System.nanoTime();
+        try {
+            openRoom(DEFAULT_ROOM).post(message);
+        } finally {
+            saveMessageAsyncTime.recordSince(start);
         }
     }
     
@@ -100,26 +349,87 @@ public class FileManager {
      * @return List of messages
      */
     public static List<Message> loadChatHistory() {
-        List<Message> messages = new ArrayList<>();
-        File file = new File(CHAT_HISTORY_FILE);
-        
-        if (!file.exists()) {
-            return messages;
+        long start = System.nanoTime();
+        try {
+            return getMessageLog().readAll();
+        } catch (IOException e) {
+            System.err.println("Error loading chat history: " + e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            loadChatHistoryTime.recordSince(start);
         }
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(CHAT_HISTORY_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                Message msg = Message.fromFileFormat(line);
-                if (msg != null) {
-                    messages.add(msg);
-                }
+    }
+    
+    /**
+     * Open a chat room, loading its history on first use
+     * @param name The room name
+     * @return The room
+     * @throws IOException If the room's history cannot be read
+     * @throws IllegalArgumentException If the room name is not valid
+     */
+    public static ChatRoom openRoom(String name) throws IOException {
+        long start = System.nanoTime();
+        try {
+            ChatRoom room = getRoomRegistry().getRoom(name);
+            room.load();
+            return room;
+        } finally {
+            openRoomTime.recordSince(start);
+        }
+    }
+    
+    /**
+     * Close a chat room: write its pending messages and save its search index
+     * @param name The room name
+     */
+    public static void closeRoom(String name) {
+        long start = System.nanoTime();
+        try {
+            RoomRegistry registry;
+            synchronized (FileManager.class) {
+                registry = roomRegistry;
             }
+            if (registry != null) {
+                registry.closeRoom(name);
+            }
+        } finally {
+            closeRoomTime.recordSince(start);
+        }
+    }
+    
+    /**
+     * Load the most recent chat messages
+     * @param count Number of messages to load
+     * @return List of messages, oldest first
+     */
+    public static List<Message> loadRecentMessages(int count) {
+        long start = System.nanoTime();
+        try {
+            return getMessageLog().readLast(count);
         } catch (IOException e) {
             System.err.println("Error loading chat history: " + e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            loadRecentTime.recordSince(start);
+        }
+    }
+    
+    /**
+     * Load chat messages sent within a time range
+     * @param fromTime Start of the range in milliseconds (inclusive)
+     * @param toTime End of the range in milliseconds (inclusive)
+     * @return List of messages, oldest first
+     */
+    public static List<Message> loadMessagesBetween(long fromTime, long toTime) {
+        long start = System.nanoTime();
+        try {
+            return getMessageLog().readRange(fromTime, toTime);
+        } catch (IOException e) {
+            System.err.println("Error loading chat history: " + e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            loadBetweenTime.recordSince(start);
         }
-        
-        return messages;
     }
     
     /**
@@ -129,10 +439,29 @@ public class FileManager {
      * @throws IOException If file operation fails
      */
     public static void saveMention(String username, String messageText) throws IOException {
-        try (FileWriter fw = new FileWriter(MENTIONS_FILE, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println(username + "|" + messageText);
+        long start = System.nanoTime();
+        try {
+            getMentionInbox().append(username, Collections.singletonList(messageText), false);
+        } finally {
+            saveMentionTime.recordSince(start);
+        }
+    }
+    
+    /**
+     * Queue a mention to be saved by the background writer
+     * @param username The mentioned username
+     * @param messageText The message containing the mention
+     * @throws IOException If the writer cannot be started or queueing is interrupted
+     */
+    public static void saveMentionAsync(String username, String messageText) throws IOException {
+        long start = System.nanoTime();
+        try {
+            getPersistenceWriter().enqueueMention(username, messageText);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving mention");
+        } finally {
+            saveMentionAsyncTime.recordSince(start);
         }
     }
     
@@ -142,26 +471,15 @@ public class FileManager {
      * @return List of mentions
      */
     public static List<String> loadMentionsForUser(String username) {
-        List<String> mentions = new ArrayList<>();
-        File file = new File(MENTIONS_FILE);
-        
-        if (!file.exists()) {
-            return mentions;
-        }
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(MENTIONS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\\|", 2);
-                if (parts.length == 2 && parts[0].equals(username)) {
-                    mentions.add(parts[1]);
-                }
-            }
+        long start = System.nanoTime();
+        try {
+            return getMentionInbox().load(username);
         } catch (IOException e) {
             System.err.println("Error loading mentions: " + e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            loadMentionsTime.recordSince(start);
         }
-        
-        return mentions;
     }
     
     /**
@@ -169,33 +487,13 @@ public class FileManager {
      * @param username The username to clear mentions for
      */
     public static void clearMentionsForUser(String username) {
-        File file = new File(MENTIONS_FILE);
-        if (!file.exists()) {
-            return;
-        }
-        
-        List<String> remainingMentions = new ArrayList<>();
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(MENTIONS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\\|", 2);
-                if (parts.length >= 1 && !parts[0].equals(username)) {
-                    remainingMentions.add(line);
-                }
-            }
+        long start = System.nanoTime();
+        try {
+            getMentionInbox().clear(username);
         } catch (IOException e) {
-            System.err.println("Error reading mentions: " + e.getMessage());
-            return;
-        }
-        
-        // Rewrite file without the cleared mentions
-        try (PrintWriter out = new PrintWriter(new FileWriter(MENTIONS_FILE))) {
-            for (String mention : remainingMentions) {
-                out.println(mention);
-            }
-        } catch (IOException e) {
-            System.err.println("Error writing mentions: " + e.getMessage());
+            System.err.println("Error clearing mentions: " + e.getMessage());
+        } finally {
+            clearMentionsTime.recordSince(start);
         }
     }
     
@@ -206,36 +504,12 @@ public class FileManager {
      * @throws IOException If file operation fails
      */
     public static void saveLastSeen(String username, long timestamp) throws IOException {
-        File file = new File(LAST_SEEN_FILE);
-        List<String> lines = new ArrayList<>();
-        boolean userFound = false;
-        
-        // Read existing data
-        if (file.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(LAST_SEEN_FILE))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] parts = line.split("\\|");
-                    if (parts.length >= 1 && parts[0].equals(username)) {
-                        lines.add(username + "|" + timestamp);
-                        userFound = true;
-                    } else {
-                        lines.add(line);
-                    }
-                }
-            }
-        }
-        
-        // Add new entry if user not found
-        if (!userFound) {
-            lines.add(username + "|" + timestamp);
-        }
-        
-        // Write back to file
-        try (PrintWriter out = new PrintWriter(new FileWriter(LAST_SEEN_FILE))) {
-            for (String line : lines) {
-                out.println(line);
-            }
+        long start = System.nanoTime();
+        try {
+            // In-place update of the user's slot
+            getLastSeenStore().save(username, timestamp);
+        } finally {
+            saveLastSeenTime.recordSince(start);
         }
     }
     
@@ -245,21 +519,13 @@ public class FileManager {
      * @return Last seen timestamp in milliseconds, or 0 if not found
      */
     public static long loadLastSeen(String username) {
-        File file = new File(LAST_SEEN_FILE);
-        if (!file.exists()) {
-            return 0;
-        }
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(LAST_SEEN_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length == 2 && parts[0].equals(username)) {
-                    return Long.parseLong(parts[1]);
-                }
-            }
-        } catch (IOException | NumberFormatException e) {
+        long start = System.nanoTime();
+        try {
+            return getLastSeenStore().load(username);
+        } catch (IOException e) {
             System.err.println("Error loading last seen: " + e.getMessage());
+        } finally {
+            loadLastSeenTime.recordSince(start);
         }
         
         return 0;
@@ -270,25 +536,11 @@ public class FileManager {
      * @return List of usernames
      */
     public static List<String> getAllUsers() {
-        List<String> users = new ArrayList<>();
-        File file = new File(USERS_FILE);
-        
-        if (!file.exists()) {
-            return users;
-        }
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(USERS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 1) {
-                    users.add(parts[0]);
-                }
-            }
+        try {
+            return users.getUsernames();
         } catch (IOException e) {
             System.err.println("Error loading users: " + e.getMessage());
+            return new ArrayList<>();
         }
-        
-        return users;
     }
 }
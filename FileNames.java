@@ -0,0 +1,31 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Maps names chosen by users (room names, usernames) to safe file names.
+ */
+public class FileNames {
+    private FileNames() {
+    }
+    
+    /**
+     * Percent-encode a name for use as a file or directory name. Anything other
+     * than lowercase letters, digits, '-' and a non-leading '.' is encoded, so
+     * names that differ only by case stay distinct on case-insensitive file
+     * systems and "." and ".." cannot name a parent directory.
+     * @param name The name
+     * @return The encoded name
+     */
+    public static String encode(String name) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-'
+                    || (c == '.' && encoded.length() > 0)) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return encoded.toString();
+    }
+}
@@ -1,24 +1,72 @@
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Represents a group chat
+ * Represents a group chat.
+ * Safe to use from several threads: messages live in a MessageHistory
+ * (a lock-free MessageStore unless another history is given)
+ * and members and offline mentions in concurrent collections. Users are keyed
+ * by SymbolTable id, and offline mentions are formatted only when read.
+ * Every message is also added to a SearchIndex for full-text search.
+ * <p>
+ * A history that already holds messages when the chat is created (a PagedHistory
+ * over a log) contributes them only through {@link #backfillEarlier(ChatCheckpoint)},
+ * which is meant to run on a low-priority background thread and takes the oldest
+ * of them from a checkpoint when there is one.
  */
 public class GroupChat {
+    private static final LongAdder messagesIngested = Metrics.counter("chat.messagesIngested");
+    private static final LatencyHistogram mentionTime = Metrics.histogram("chat.mentionProcessing");
+    private static final LongAdder messagesBackfilled = Metrics.counter("chat.messagesBackfilled");
+    private static final int BACKFILL_CHUNK = 4096;
+    
     private String groupName;
     private List<User> members;
-    private List<Message> messages;
-    private List<String> offlineMentions; // Format: "username|message"
+    private Map<Integer, User> membersById;
+    private MessageHistory messages;
+    private Queue<Long> offlineMentions; // User id in the high 32 bits, message id in the low
+    private ChatStatistics statistics;
+    private MentionIndex mentionIndex;
+    private volatile SearchIndex searchIndex;
+    private int restoredCount; // Messages below this id are already in searchIndex
+    private final int earlierCount; // Messages the history held before the chat was created
+    private volatile int backfilledFrom; // Earlier messages from this id on are counted and indexed
+    private volatile boolean searchCaughtUp; // Every message up to the newest is in searchIndex
     
     /**
      * Constructor for GroupChat
      * @param groupName The name of the group
      */
     public GroupChat(String groupName) {
+        this(groupName, new MessageStore());
+    }
+    
+    /**
+     * Constructor for GroupChat with a given message history
+     * @param groupName The name of the group
+     * @param messages The history that will hold the chat's messages
+     */
+    public GroupChat(String groupName, MessageHistory messages) {
         this.groupName = groupName;
-        this.members = new ArrayList<>();
-        this.messages = new ArrayList<>();
-        this.offlineMentions = new ArrayList<>();
+        this.members = new CopyOnWriteArrayList<>();
+        this.membersById = new ConcurrentHashMap<>();
+        this.messages = messages;
+        this.offlineMentions = new ConcurrentLinkedQueue<>();
+        this.statistics = new ChatStatistics();
+        this.mentionIndex = new MentionIndex();
+        this.searchIndex = new SearchIndex();
+        this.earlierCount = messages.size();
+        this.backfilledFrom = earlierCount;
+        this.searchCaughtUp = earlierCount == 0;
     }
     
     /**
@@ -26,7 +74,7 @@ public class GroupChat {
      * @param user The user to add
      */
     public void addMember(User user) {
-        if (!members.contains(user)) {
+        if (membersById.putIfAbsent(user.getId(), user) == null) {
             members.add(user);
         }
     }
@@ -36,24 +84,30 @@ public class GroupChat {
      * @param message The message to add
      */
     public void addMessage(Message message) {
-        messages.add(message);
+        int messageId = messages.append(message);
+        statistics.record(message);
+        messagesIngested.increment();
+        if (messageId >= restoredCount) {
+            indexMessage(messageId, message);
+        }
         
-        // Check if message has mention and store if user is offline
-        if (message.hasMention()) {
-            String mentionedUser = message.getMentionedUser();
-            boolean userOnline = false;
-            
-            for (User member : members) {
-                if (member.getUsername().equals(mentionedUser) && member.isOnline()) {
-                    userOnline = true;
-                    break;
-                }
-            }
+        int[] mentionedUsers = message.getMentionedUserIds();
+        if (mentionedUsers.length == 0) {
+            return;
+        }
+        
+        // Index every mention and store it for users who are offline
+        long start = System.nanoTime();
+        for (int mentionedUser : mentionedUsers) {
+            mentionIndex.add(mentionedUser, messageId);
+            User member = membersById.get(mentionedUser);
+            boolean userOnline = member != null && member.isOnline();
             
             if (!userOnline) {
-                offlineMentions.add(mentionedUser + "|" + message.formatMessage());
+                offlineMentions.add(((long) mentionedUser << 32) | messageId);
             }
         }
+        mentionTime.recordSince(start);
     }
     
     /**
@@ -63,21 +117,224 @@ public class GroupChat {
      */
     public List<String> getMentionsForUser(String username) {
         List<String> userMentions = new ArrayList<>();
-        for (String mention : offlineMentions) {
-            String[] parts = mention.split("\\|", 2);
-            if (parts.length == 2 && parts[0].equals(username)) {
-                userMentions.add(parts[1]);
+        int userId = SymbolTable.lookup(username);
+        for (long mention : offlineMentions) {
+            if (mentionedUserOf(mention) == userId) {
+                userMentions.add(messages.get(messageIdOf(mention)).formatMessage());
             }
         }
         return userMentions;
     }
     
+    private static int mentionedUserOf(long mention) {
+        return (int) (mention >>> 32);
+    }
+    
+    private static int messageIdOf(long mention) {
+        return (int) mention;
+    }
+    
+    /**
+     * Get messages that mention a user and were sent after a time.
+     * A hash lookup in the mention index plus one binary search; no scan of the history.
+     * @param username The mentioned username
+     * @param time Time in milliseconds (exclusive)
+     * @return Read-only view, oldest first
+     */
+    public List<Message> mentionsOf(String username, long time) {
+        int userId = SymbolTable.lookup(username);
+        List<Integer> ids = mentionIndex.idsFrom(userId, messages.indexAfter(time));
+        return new AbstractList<Message>() {
+            @Override
+            public Message get(int index) {
+                return messages.get(ids.get(index));
+            }
+            
+            @Override
+            public int size() {
+                return ids.size();
+            }
+        };
+    }
+    
+    /**
+     * Index a new message, unless the index is still catching up with earlier
+     * messages; the catch-up reaches this one in order
+     */
+    private void indexMessage(int messageId, Message message) {
+        if (!searchCaughtUp) {
+            synchronized (searchIndex) {
+                if (!searchCaughtUp) {
+                    return;
+                }
+            }
+        }
+        searchIndex.add(messageId, message);
+    }
+    
+    /**
+     * Use a search index saved by an earlier session, so reloading the history
+     * only indexes the messages added since it was saved.
+     * Must be called before any message is added, or, while the index is still
+     * catching up with earlier messages, before {@link #catchUpSearchIndex()}.
+     * @param index The saved index; must match the history that will be loaded
+     */
+    public void restoreSearchIndex(SearchIndex index) {
+        synchronized (searchIndex) {
+            if (messages.size() == earlierCount) {
+                this.restoredCount = index.getMessageCount();
+                this.searchCaughtUp = restoredCount >= earlierCount;
+            } else if (searchCaughtUp) {
+                throw new IllegalStateException("Search index must be restored before messages are added");
+            }
+            // Otherwise new messages are not indexed yet; the catch-up starts from the restored count
+            this.searchIndex = index;
+        }
+    }
+    
+    /**
+     * Bring the messages the history held before the chat was created into the
+     * search index, statistics and mention index. Reads the whole earlier history,
+     * so run it on a background thread; it stops early if that thread is interrupted
+     * and can be called again to continue.
+     * The search index catches up oldest first, so it stays in id order; statistics
+     * and mentions are filled newest first, so recent history is complete soonest.
+     */
+    public void backfillEarlier() {
+        catchUpSearchIndex();
+        backfillEarlier(null);
+    }
+    
+    /**
+     * Backfill the statistics and mention index only, newest first, reading the
+     * earlier messages down to the ones a checkpoint covers and then adding the
+     * checkpoint's statistics and mentions instead of reading those.
+     * Stops early if the thread is interrupted and can be called again to continue.
+     * @param checkpoint A checkpoint that matches the history, or null to read every earlier message
+     */
+    public void backfillEarlier(ChatCheckpoint checkpoint) {
+        int floor = checkpoint != null ? checkpoint.getMessageCount() : 0;
+        if (floor > earlierCount) {
+            throw new IllegalArgumentException("Checkpoint covers " + floor
+                    + " messages but only " + earlierCount + " are earlier");
+        }
+        while (backfilledFrom > floor && !Thread.currentThread().isInterrupted()) {
+            int end = backfilledFrom;
+            int start = Math.max(floor, end - BACKFILL_CHUNK);
+            List<Message> chunk = messages.view(start, end);
+            Map<Integer, List<Integer>> mentions = new HashMap<>();
+            for (int id = end - 1; id >= start; id--) {
+                Message message = chunk.get(id - start);
+                statistics.recordEarlier(message);
+                for (int mentionedUser : message.getMentionedUserIds()) {
+                    mentions.computeIfAbsent(mentionedUser, k -> new ArrayList<>()).add(id);
+                }
+            }
+            for (Map.Entry<Integer, List<Integer>> entry : mentions.entrySet()) {
+                List<Integer> descending = entry.getValue();
+                int[] ids = new int[descending.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = descending.get(ids.length - 1 - i);
+                }
+                mentionIndex.addEarlier(entry.getKey(), ids);
+            }
+            messagesBackfilled.add(end - start);
+            backfilledFrom = start;
+        }
+        
+        if (floor > 0 && backfilledFrom == floor) {
+            statistics.addEarlier(checkpoint.getStatistics());
+            for (Map.Entry<Integer, int[]> entry : checkpoint.getMentions().entrySet()) {
+                mentionIndex.addEarlier(entry.getKey(), entry.getValue());
+            }
+            backfilledFrom = 0;
+        }
+    }
+    
+    /**
+     * Capture the statistics and mention index for every message so far.
+     * Messages must not be added meanwhile; ChatRoom holds its post lock.
+     * @return The checkpoint, or null while earlier messages are still being backfilled
+     */
+    public ChatCheckpoint checkpoint() {
+        if (backfilledFrom > 0) {
+            return null;
+        }
+        int count = messages.size();
+        long lastTimestamp = count > 0 ? messages.get(count - 1).getTimestamp().getTime() : 0;
+        ChatStatistics copy = new ChatStatistics();
+        copy.addEarlier(statistics);
+        return new ChatCheckpoint(count, lastTimestamp, copy, mentionIndex.copyAll());
+    }
+    
+    /**
+     * Index every message the search index does not cover yet, in id order, a
+     * chunk at a time so new messages wait at most one chunk for the index lock.
+     * Stops early if the thread is interrupted and can be called again to continue.
+     */
+    public void catchUpSearchIndex() {
+        SearchIndex index = searchIndex;
+        while (!searchCaughtUp && !Thread.currentThread().isInterrupted()) {
+            synchronized (index) {
+                int size = messages.size();
+                int end = Math.min(size, index.getMessageCount() + BACKFILL_CHUNK);
+                for (int id = index.getMessageCount(); id < end; id++) {
+                    index.add(id, messages.get(id));
+                }
+                if (end == size) {
+                    searchCaughtUp = true;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get the number of earlier messages not yet counted by {@link #backfillEarlier(ChatCheckpoint)}
+     * @return Messages left to backfill; 0 once the statistics cover the whole history
+     */
+    public int getBackfillRemaining() {
+        return backfilledFrom;
+    }
+    
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+    
+    /**
+     * Search message content. Every word of the query must occur in a message;
+     * a word ending in '*' matches as a prefix.
+     * @param query The words to find, for example "release notes*"
+     * @param sender Username the messages must be from, or null for anyone
+     * @param fromTime Start of the range in milliseconds (inclusive)
+     * @param toTime End of the range in milliseconds (exclusive)
+     * @param limit Maximum number of messages to return
+     * @return Matching messages, newest first
+     */
+    public List<Message> search(String query, String sender, long fromTime, long toTime, int limit) {
+        int senderId = -1;
+        if (sender != null) {
+            senderId = SymbolTable.lookup(sender);
+            if (senderId < 0) {
+                return Collections.emptyList();
+            }
+        }
+        int fromId = fromTime == Long.MIN_VALUE ? 0 : messages.indexAfter(fromTime - 1);
+        int toId = toTime == Long.MAX_VALUE ? messages.size() : messages.indexAfter(toTime - 1);
+        List<Integer> ids = searchIndex.search(query, senderId, fromId, toId, limit);
+        List<Message> results = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            results.add(messages.get(id));
+        }
+        return results;
+    }
+    
     /**
      * Clear mentions for a user (after they've been notified)
      * @param username The username to clear mentions for
      */
     public void clearMentionsForUser(String username) {
-        offlineMentions.removeIf(mention -> mention.startsWith(username + "|"));
+        int userId = SymbolTable.lookup(username);
+        offlineMentions.removeIf(mention -> mentionedUserOf(mention) == userId);
     }
     
     // Getters
@@ -89,24 +346,97 @@ public class GroupChat {
         return members;
     }
     
+    /**
+     * Get all messages
+     * @return Read-only snapshot view; messages added later are not included
+     */
     public List<Message> getMessages() {
-        return messages;
+        return messages.snapshot();
     }
     
+    /**
+     * Get a range of messages by position
+     * @param from First message index (inclusive)
+     * @param to Last message index (exclusive)
+     * @return Read-only view of the range
+     */
+    public List<Message> getMessages(int from, int to) {
+        return messages.view(from, to);
+    }
+    
+    /**
+     * Get the number of offline mentions waiting to be read. Counts the queue,
+     * so it is meant for occasional reads such as metrics.
+     * @return Pending offline mention count
+     */
+    public int getOfflineMentionCount() {
+        return offlineMentions.size();
+    }
+    
+    /**
+     * Get the number of messages in the chat
+     * @return Message count
+     */
+    public int getMessageCount() {
+        return messages.size();
+    }
+    
+    public ChatStatistics getStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * Get every pending offline mention
+     * @return List of "username|formatted message" strings
+     */
     public List<String> getOfflineMentions() {
-        return offlineMentions;
+        List<String> mentions = new ArrayList<>();
+        for (long mention : offlineMentions) {
+            mentions.add(SymbolTable.name(mentionedUserOf(mention)) + "|"
+                    + messages.get(messageIdOf(mention)).formatMessage());
+        }
+        return mentions;
+    }
+    
+    /**
+     * Get messages sent after a time, found by binary search over the time index.
+     * Messages are kept in arrival order, which is treated as time order.
+     * @param time Time in milliseconds (exclusive)
+     * @return Read-only snapshot view, oldest first
+     */
+    public List<Message> messagesSince(long time) {
+        return messages.since(time);
+    }
+    
+    /**
+     * Get messages sent within a time range, found by binary search over the time index
+     * @param fromTime Start of the range in milliseconds (inclusive)
+     * @param toTime End of the range in milliseconds (exclusive)
+     * @return Read-only snapshot view, oldest first
+     */
+    public List<Message> messagesBetween(long fromTime, long toTime) {
+        return messages.between(fromTime, toTime);
     }
     
     /**
      * Get recent messages (last N messages)
      * @param count Number of messages to retrieve
-     * @return List of recent messages
+     * @return Read-only snapshot view of recent messages
      */
     public List<Message> getRecentMessages(int count) {
+        return messages.recent(count);
+    }
+    
+    /**
+     * Count the messages sent after a time, leaving out one user's own messages.
+     * The history counts straight from its storage where it can.
+     * @param time Time in milliseconds (exclusive)
+     * @param excludedSender Username whose messages are not counted, or null
+     * @return Statistics for the counted messages
+     */
+    public ChatStatistics statisticsSince(long time, String excludedSender) {
         int size = messages.size();
-        if (size <= count) {
-            return new ArrayList<>(messages);
-        }
-        return new ArrayList<>(messages.subList(size - count, size));
+        int excludedId = excludedSender != null ? SymbolTable.lookup(excludedSender) : -1;
+        return messages.statistics(Math.min(messages.indexAfter(time), size), size, excludedId);
     }
 }
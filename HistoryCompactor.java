@@ -0,0 +1,92 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background compactor for stored history. Each pass applies retention to every
+ * open room, compresses the closed segments of its log and purges consumed
+ * mention inboxes, on one low-priority daemon thread. Unread inboxes are purged
+ * by age only when a mention age is configured.
+ */
+public class HistoryCompactor implements Closeable {
+    private static final LatencyHistogram passTime = Metrics.histogram("compactor.pass");
+    private static final LongAdder messagesExpired = Metrics.counter("compactor.messagesExpired");
+    private static final LongAdder segmentsCompressed = Metrics.counter("compactor.segmentsCompressed");
+    private static final LongAdder inboxesPurged = Metrics.counter("compactor.inboxesPurged");
+    
+    private final RoomRegistry rooms;
+    private final MentionInbox inbox;
+    private final long mentionMaxAgeMillis;
+    private final ScheduledExecutorService executor;
+    
+    /**
+     * Constructor for HistoryCompactor
+     * @param rooms The rooms whose logs are expired and compressed
+     * @param inbox The mention inboxes to purge
+     * @param mentionMaxAgeMillis Age after which an unread inbox is deleted; 0 keeps inboxes until read
+     */
+    public HistoryCompactor(RoomRegistry rooms, MentionInbox inbox, long mentionMaxAgeMillis) {
+        if (mentionMaxAgeMillis < 0) {
+            throw new IllegalArgumentException("Mention age cannot be negative: " + mentionMaxAgeMillis);
+        }
+        this.rooms = rooms;
+        this.inbox = inbox;
+        this.mentionMaxAgeMillis = mentionMaxAgeMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-history-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+    
+    /**
+     * Run a pass now and then every interval
+     * @param intervalSeconds Seconds between the end of one pass and the start of the next
+     */
+    public void start(long intervalSeconds) {
+        executor.scheduleWithFixedDelay(this::compact, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Run one pass on the calling thread, logging rather than throwing failures.
+     * Nothing may escape: an exception would cancel every later scheduled pass.
+     */
+    public void compact() {
+        long start = System.nanoTime();
+        try {
+            for (ChatRoom room : rooms.getRooms()) {
+                try {
+                    // Expire first, so segments about to be dropped are not compressed
+                    messagesExpired.add(rooms.applyRetention(room));
+                    segmentsCompressed.add(room.compact());
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error compacting room " + room.getName() + ": " + e);
+                }
+            }
+            long olderThan = mentionMaxAgeMillis > 0
+                    ? System.currentTimeMillis() - mentionMaxAgeMillis : Long.MIN_VALUE;
+            inboxesPurged.add(inbox.purgeOlderThan(olderThan));
+        } catch (RuntimeException e) {
+            System.err.println("Error purging mention inboxes: " + e);
+        } finally {
+            passTime.recordSince(start);
+        }
+    }
+    
+    /**
+     * Stop scheduling passes and wait briefly for a running one to finish
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
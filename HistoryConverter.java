@@ -0,0 +1,76 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Command-line converter to the binary message log format.
+ * The source is either a legacy chat_history.txt file or a message log
+ * directory whose segments are still text; the target is a new log directory.
+ */
+public class HistoryConverter {
+    private static final int CHUNK_MESSAGES = 100000;
+    
+    /**
+     * Convert a history into a binary message log
+     * @param source chat_history.txt or a message log directory
+     * @param target The directory of the new log; it must be empty or absent
+     * @return Number of messages converted
+     * @throws IOException If the source cannot be read or the target written
+     */
+    public static long convert(File source, File target) throws IOException {
+        try (MessageLog out = new MessageLog(target)) {
+            if (out.size() > 0) {
+                throw new IllegalArgumentException("Target log is not empty: " + target);
+            }
+            if (source.isFile()) {
+                return out.importLegacy(source);
+            }
+            
+            try (MessageLog in = new MessageLog(source)) {
+                long total = in.size();
+                // Retention may have dropped the oldest segments, so ordinals need not start at 0
+                long first = in.getFirstOrdinal();
+                for (long from = first; from < first + total; from += CHUNK_MESSAGES) {
+                    List<Message> chunk = in.read(from, Math.min(first + total, from + CHUNK_MESSAGES));
+                    for (Message message : chunk) {
+                        out.append(message);
+                    }
+                }
+                out.sync();
+                return total;
+            }
+        }
+    }
+    
+    private static long sizeOf(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Run the converter from the command line
+     * @param args Source file or directory, then target directory
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java HistoryConverter <chat_history.txt | log dir> <target dir>");
+            System.exit(1);
+        }
+        File source = new File(args[0]);
+        File target = new File(args[1]);
+        long start = System.nanoTime();
+        long count = convert(source, target);
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Converted " + count + " messages in " + millis + " ms: "
+                + sizeOf(source) + " bytes -> " + sizeOf(target) + " bytes");
+    }
+}
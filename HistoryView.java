@@ -0,0 +1,39 @@
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Fixed-range, read-only view over a MessageHistory; no copying
+ */
+class HistoryView extends AbstractList<Message> implements RandomAccess {
+    private final MessageHistory history;
+    private final int from;
+    private final int to;
+    
+    HistoryView(MessageHistory history, int from, int to) {
+        this.history = history;
+        this.from = from;
+        this.to = to;
+    }
+    
+    @Override
+    public Message get(int index) {
+        if (index < 0 || index >= to - from) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return history.get(from + index);
+    }
+    
+    @Override
+    public int size() {
+        return to - from;
+    }
+    
+    @Override
+    public List<Message> subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Range: " + fromIndex + " to " + toIndex);
+        }
+        return new HistoryView(history, from + fromIndex, from + toIndex);
+    }
+}
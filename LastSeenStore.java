@@ -0,0 +1,188 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed-record key/value store for last-seen timestamps.
+ * Each user owns one 128-byte slot (name length, name, timestamp) and an
+ * in-memory directory maps usernames to slots, so an update is a single
+ * 8-byte positional write instead of a rewrite of the whole file.
+ */
+public class LastSeenStore implements Closeable {
+    private static final int RECORD_SIZE = 128;
+    private static final int MAX_NAME_BYTES = RECORD_SIZE - 2 - 8;
+    private static final int TIMESTAMP_OFFSET = RECORD_SIZE - 8;
+    
+    private final FileChannel channel;
+    private final Map<String, Integer> slots;
+    private int slotCount;
+    
+    /**
+     * Open (or create) a last-seen store
+     * @param file The store file
+     * @throws IOException If the file cannot be opened
+     */
+    public LastSeenStore(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.slots = new HashMap<>();
+        this.slotCount = 0;
+        loadNewSlots();
+    }
+    
+    /**
+     * Save a user's last seen timestamp
+     * @param username The username
+     * @param timestamp The timestamp in milliseconds
+     * @throws IOException If the write fails
+     */
+    public synchronized void save(String username, long timestamp) throws IOException {
+        Integer slot = slots.get(username);
+        if (slot == null) {
+            slot = allocate(username, timestamp);
+            if (slot >= 0) {
+                return;
+            }
+            slot = -slot - 1;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(0, timestamp);
+        writeFully(buffer, (long) slot * RECORD_SIZE + TIMESTAMP_OFFSET);
+    }
+    
+    /**
+     * Load a user's last seen timestamp
+     * @param username The username
+     * @return Last seen timestamp in milliseconds, or 0 if not found
+     * @throws IOException If the read fails
+     */
+    public synchronized long load(String username) throws IOException {
+        Integer slot = slots.get(username);
+        if (slot == null) {
+            // Another process may have added the user
+            loadNewSlots();
+            slot = slots.get(username);
+            if (slot == null) {
+                return 0;
+            }
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        long position = (long) slot * RECORD_SIZE + TIMESTAMP_OFFSET;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        return buffer.getLong(0);
+    }
+    
+    /**
+     * Allocate a slot for a new user and write its full record.
+     * @return The new slot, or (-slot - 1) if another process allocated one first
+     */
+    private int allocate(String username, long timestamp) throws IOException {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES) {
+            throw new IOException("Username too long for last seen store: " + username);
+        }
+        
+        // Lock the file so concurrent processes never claim the same slot
+        FileLock lock = channel.lock();
+        try {
+            loadNewSlots();
+            Integer existing = slots.get(username);
+            if (existing != null) {
+                return -existing - 1;
+            }
+            
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.putShort((short) name.length);
+            record.put(name);
+            record.putLong(TIMESTAMP_OFFSET, timestamp);
+            record.rewind();
+            
+            int slot = slotCount;
+            writeFully(record, (long) slot * RECORD_SIZE);
+            slots.put(username, slot);
+            slotCount++;
+            return slot;
+        } finally {
+            lock.release();
+        }
+    }
+    
+    /**
+     * Read any slots appended since the directory was last loaded
+     */
+    private void loadNewSlots() throws IOException {
+        long records = channel.size() / RECORD_SIZE;
+        if (records <= slotCount) {
+            return;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        for (int slot = slotCount; slot < records; slot++) {
+            buffer.clear();
+            long position = (long) slot * RECORD_SIZE;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            int length = buffer.getShort(0);
+            if (length > 0 && length <= MAX_NAME_BYTES) {
+                String username = new String(buffer.array(), 2, length, StandardCharsets.UTF_8);
+                slots.putIfAbsent(username, slot);
+            }
+        }
+        slotCount = (int) records;
+    }
+    
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+    
+    /**
+     * Import entries from the legacy pipe-delimited last_seen.txt format
+     * @param legacyFile The legacy file
+     * @return Number of entries imported
+     * @throws IOException If the legacy file cannot be read or the store written
+     */
+    public synchronized int importLegacy(File legacyFile) throws IOException {
+        int imported = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(legacyFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split("\\|");
+                if (parts.length == 2) {
+                    try {
+                        save(parts[0], Long.parseLong(parts[1]));
+                        imported++;
+                    } catch (NumberFormatException e) {
+                        System.err.println("Skipping bad last seen entry: " + line);
+                    }
+                }
+            }
+        }
+        channel.force(false);
+        return imported;
+    }
+    
+    /**
+     * Flush and close the store
+     * @throws IOException If the close fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,29 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Thrown when a MessageLog cannot be opened because another log already owns its
+ * directory, in this process or another one. Only one process at a time can run
+ * the chat against a data directory.
+ */
+public class LogInUseException extends IOException {
+    private static final long serialVersionUID = 1L;
+    
+    private final File directory;
+    
+    /**
+     * @param directory The log directory that is already open
+     * @param message The detail message
+     */
+    public LogInUseException(File directory, String message) {
+        super(message);
+        this.directory = directory;
+    }
+    
+    /**
+     * @return The log directory that is already open
+     */
+    public File getDirectory() {
+        return directory;
+    }
+}
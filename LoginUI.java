@@ -1,6 +1,7 @@
 import java.awt.*;
 import java.awt.event.*;
 import java.io.IOException;
+import java.util.concurrent.CompletionException;
 
 /**
  * Login UI using AWT with validation and exception handling
@@ -11,15 +12,20 @@ public class LoginUI extends Frame {
     private Label messageLabel;
     private Button loginButton;
     private Button registerButton;
+    private final AuthService authService;
     
     /**
      * Constructor for LoginUI
      */
     public LoginUI() {
         super("Chat Application - Login");
+        this.authService = new AuthService();
         setupUI();
         setupEventHandlers();
         
+        // Load users.txt while the user is typing
+        authService.preload();
+        
         // Center the window on screen
         setLocationRelativeTo(null);
         
@@ -240,6 +246,9 @@ public class LoginUI extends Frame {
      * Handle login attempt with validation and exception handling
      */
     private void handleLogin() {
+        if (!loginButton.isEnabled()) {
+            return; // A request is already running
+        }
         try {
             String username = usernameField.getText().trim();
             String password = passwordField.getText().trim();
@@ -261,37 +270,34 @@ public class LoginUI extends Frame {
                 throw new IllegalArgumentException("Password must be at least 4 characters!");
             }
             
-            // Validate credentials
-            if (FileManager.validateUser(username, password)) {
-                messageLabel.setForeground(new Color(0, 128, 0));
-                messageLabel.setText("Login successful!");
-                
-                // Small delay before opening chat window
-                new Thread(new Runnable() {
-                    public void run() {
-                        try {
-                            Thread.sleep(500);
-                            openChatWindow(username);
-                        } catch (InterruptedException ex) {
-                            ex.printStackTrace();
-                        }
-                    }
-                }).start();
-                
-            } else {
-                throw new IllegalArgumentException("Invalid username or password!");
-            }
+            // Check credentials off the event thread; the result comes back on it
+            setBusy(true);
+            authService.login(username, password).whenComplete((valid, error) ->
+                    EventQueue.invokeLater(() -> finishLogin(username, valid, error)));
             
         } catch (IllegalArgumentException ex) {
             messageLabel.setForeground(Color.RED);
             messageLabel.setText(ex.getMessage());
-        } catch (IOException ex) {
-            messageLabel.setForeground(Color.RED);
-            messageLabel.setText("Error: " + ex.getMessage());
-        } catch (Exception ex) {
+        }
+    }
+    
+    /**
+     * Show the result of a login attempt and open the chat window on success
+     * @param username The username that was checked
+     * @param valid Whether the credentials are valid, or null if the check failed
+     * @param error The failure, or null
+     */
+    private void finishLogin(String username, Boolean valid, Throwable error) {
+        setBusy(false);
+        if (error != null) {
+            showError(error);
+        } else if (valid) {
+            messageLabel.setForeground(new Color(0, 128, 0));
+            messageLabel.setText("Login successful!");
+            openChatWindow(username);
+        } else {
             messageLabel.setForeground(Color.RED);
-            messageLabel.setText("An unexpected error occurred!");
-            ex.printStackTrace();
+            messageLabel.setText("Invalid username or password!");
         }
     }
     
@@ -299,6 +305,9 @@ public class LoginUI extends Frame {
      * Handle registration with validation and exception handling
      */
     private void handleRegister() {
+        if (!loginButton.isEnabled()) {
+            return; // A request is already running
+        }
         try {
             String username = usernameField.getText().trim();
             String password = passwordField.getText().trim();
@@ -328,32 +337,96 @@ public class LoginUI extends Frame {
                 throw new IllegalArgumentException("Username cannot contain spaces!");
             }
             
-            // Register user
-            FileManager.registerUser(username, password);
-            messageLabel.setForeground(new Color(0, 128, 0));
-            messageLabel.setText("Registration successful! Please login.");
-            passwordField.setText("");
+            // Register off the event thread; the result comes back on it
+            setBusy(true);
+            authService.register(username, password).whenComplete((ignored, error) ->
+                    EventQueue.invokeLater(() -> finishRegister(error)));
             
         } catch (IllegalArgumentException ex) {
             messageLabel.setForeground(Color.RED);
             messageLabel.setText(ex.getMessage());
-        } catch (IOException ex) {
-            messageLabel.setForeground(Color.RED);
-            messageLabel.setText("Error: " + ex.getMessage());
-        } catch (Exception ex) {
-            messageLabel.setForeground(Color.RED);
+        }
+    }
+    
+    /**
+     * Show the result of a registration
+     * @param error The failure, or null if the user was registered
+     */
+    private void finishRegister(Throwable error) {
+        setBusy(false);
+        if (error != null) {
+            showError(error);
+        } else {
+            messageLabel.setForeground(new Color(0, 128, 0));
+            messageLabel.setText("Registration successful! Please login.");
+            passwordField.setText("");
+        }
+    }
+    
+    /**
+     * Show a failed login or registration in the message label
+     * @param error The failure reported by the AuthService
+     */
+    private void showError(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        messageLabel.setForeground(Color.RED);
+        if (cause instanceof IllegalArgumentException) {
+            messageLabel.setText(cause.getMessage());
+        } else if (cause instanceof LogInUseException) {
+            // The chat history has one writer, so a second window on the same data directory is refused
+            messageLabel.setText("Chat is already open in another window. Close it first.");
+            System.err.println(cause.getMessage());
+        } else if (cause instanceof IOException) {
+            messageLabel.setText("Error: " + cause.getMessage());
+        } else {
             messageLabel.setText("An unexpected error occurred!");
-            ex.printStackTrace();
+            cause.printStackTrace();
+        }
+    }
+    
+    /**
+     * Disable the buttons while a request is running, so it cannot be sent twice
+     * @param busy true while a request is running
+     */
+    private void setBusy(boolean busy) {
+        loginButton.setEnabled(!busy);
+        registerButton.setEnabled(!busy);
+        if (busy) {
+            messageLabel.setForeground(new Color(120, 120, 120));
+            messageLabel.setText("Please wait...");
         }
     }
     
     /**
-     * Open the chat window after successful login
+     * Open the chat window after successful login. The room, named by the
+     * chat.room property or the default room, is opened and its history read
+     * off the event thread; the window is built on it once that is done.
      * @param username The logged-in username
      */
     private void openChatWindow(String username) {
-        ChatUI chatUI = new ChatUI(username);
+        setBusy(true);
+        messageLabel.setText("Login successful! Opening chat...");
+        String roomName = System.getProperty("chat.room", FileManager.DEFAULT_ROOM);
+        authService.openRoom(roomName).whenComplete((room, error) ->
+                EventQueue.invokeLater(() -> finishOpenChat(username, room, error)));
+    }
+    
+    /**
+     * Show the chat window on the opened room, or the reason it could not be opened
+     * @param username The logged-in username
+     * @param room The opened room, or null if opening failed
+     * @param error The failure, or null
+     */
+    private void finishOpenChat(String username, ChatRoom room, Throwable error) {
+        setBusy(false);
+        if (error != null) {
+            showError(error);
+            return;
+        }
+        ChatUI chatUI = new ChatUI(username, room);
         chatUI.setVisible(true);
+        authService.close();
         this.dispose();
     }
 }
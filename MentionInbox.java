@@ -0,0 +1,152 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user mention inboxes, one file per mentioned user.
+ * Loading or clearing a user's mentions only touches that user's file,
+ * so the cost is proportional to that user's mentions alone.
+ */
+public class MentionInbox {
+    private static final String INBOX_SUFFIX = ".txt";
+    
+    private final File directory;
+    
+    /**
+     * Open (or create) the inbox directory
+     * @param directory The directory holding one file per user
+     * @throws IOException If the directory cannot be created
+     */
+    public MentionInbox(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create mentions directory: " + directory);
+        }
+        this.directory = directory;
+    }
+    
+    /**
+     * Append mentions to a user's inbox
+     * @param username The mentioned username
+     * @param messages The formatted messages containing the mention
+     * @param sync true to force the write to the storage device
+     * @throws IOException If the write fails
+     */
+    public synchronized void append(String username, List<String> messages, boolean sync)
+            throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (String message : messages) {
+            lines.append(message).append('\n');
+        }
+        
+        try (FileOutputStream out = new FileOutputStream(inboxFile(username), true)) {
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            if (sync) {
+                out.getChannel().force(false);
+            }
+        }
+    }
+    
+    /**
+     * Append a batch of mentions, one write per mentioned user
+     * @param mentionsByUser Formatted messages grouped by mentioned username
+     * @param sync true to force each write to the storage device
+     * @throws IOException If a write fails
+     */
+    public synchronized void appendAll(Map<String, List<String>> mentionsByUser, boolean sync)
+            throws IOException {
+        for (Map.Entry<String, List<String>> entry : mentionsByUser.entrySet()) {
+            append(entry.getKey(), entry.getValue(), sync);
+        }
+    }
+    
+    /**
+     * Load mentions for a user
+     * @param username The username to load mentions for
+     * @return List of mentions, oldest first
+     * @throws IOException If the inbox cannot be read
+     */
+    public synchronized List<String> load(String username) throws IOException {
+        List<String> mentions = new ArrayList<>();
+        File file = inboxFile(username);
+        if (!file.exists()) {
+            return mentions;
+        }
+        
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                mentions.add(line);
+            }
+        }
+        return mentions;
+    }
+    
+    /**
+     * Clear all mentions for a user
+     * @param username The username to clear mentions for
+     * @throws IOException If the inbox cannot be removed
+     */
+    public synchronized void clear(String username) throws IOException {
+        File file = inboxFile(username);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot clear mentions for " + username);
+        }
+    }
+    
+    /**
+     * Delete inboxes that are empty or have not been written to since a time.
+     * Clearing an inbox already deletes it, so with Long.MIN_VALUE only consumed,
+     * empty inboxes go; a later time also deletes unread ones.
+     * @param olderThan Time in milliseconds; Long.MIN_VALUE deletes only empty inboxes
+     * @return Number of inboxes deleted
+     */
+    public synchronized int purgeOlderThan(long olderThan) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(INBOX_SUFFIX));
+        if (files == null) {
+            return 0;
+        }
+        int purged = 0;
+        for (File file : files) {
+            if ((file.length() == 0 || file.lastModified() < olderThan) && file.delete()) {
+                purged++;
+            }
+        }
+        return purged;
+    }
+    
+    /**
+     * Split the legacy single mentions.txt file into per-user inboxes
+     * @param legacyFile The legacy mentions file
+     * @return Number of mentions imported
+     * @throws IOException If the legacy file cannot be read or an inbox written
+     */
+    public synchronized int importLegacy(File legacyFile) throws IOException {
+        Map<String, List<String>> byUser = new LinkedHashMap<>();
+        int imported = 0;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(legacyFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int separator = line.indexOf('|');
+                if (separator > 0) {
+                    byUser.computeIfAbsent(line.substring(0, separator), k -> new ArrayList<>())
+                          .add(line.substring(separator + 1));
+                    imported++;
+                }
+            }
+        }
+        appendAll(byUser, true);
+        return imported;
+    }
+    
+    /**
+     * Map a username to its inbox file, encoded by {@link FileNames#encode(String)}
+     */
+    private File inboxFile(String username) {
+        return new File(directory, FileNames.encode(username) + INBOX_SUFFIX);
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index from mentioned user (SymbolTable id) to the ids of the messages that mention them.
+ * Built as messages are added, so "mentions of X since T" is a hash lookup plus
+ * a binary search instead of a scan of the whole history.
+ */
+public class MentionIndex {
+    private final Map<Integer, IdList> byUser;
+    
+    /**
+     * Constructor for MentionIndex
+     */
+    public MentionIndex() {
+        this.byUser = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Record that a message mentions a user
+     * @param userId The mentioned user's id
+     * @param messageId The message id (its index in the message store)
+     */
+    public void add(int userId, int messageId) {
+        byUser.computeIfAbsent(userId, k -> new IdList()).add(messageId);
+    }
+    
+    /**
+     * Record a batch of mentions older than any recorded for the user so far
+     * @param userId The mentioned user's id
+     * @param messageIds Ascending message ids
+     */
+    public void addEarlier(int userId, int[] messageIds) {
+        byUser.computeIfAbsent(userId, k -> new IdList()).prepend(messageIds);
+    }
+    
+    /**
+     * Get every message id that mentions a user
+     * @param userId The mentioned user's id
+     * @return Ascending list of message ids
+     */
+    public List<Integer> get(int userId) {
+        return idsFrom(userId, 0);
+    }
+    
+    /**
+     * Get the message ids that mention a user, starting at a message id
+     * @param userId The mentioned user's id
+     * @param firstMessageId Smallest message id to include
+     * @return Ascending list of message ids; a view, not a copy
+     */
+    public List<Integer> idsFrom(int userId, int firstMessageId) {
+        IdList ids = byUser.get(userId);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        return ids.viewFrom(firstMessageId);
+    }
+    
+    /**
+     * Get the number of messages that mention a user
+     * @param userId The mentioned user's id
+     * @return Mention count
+     */
+    public int count(int userId) {
+        IdList ids = byUser.get(userId);
+        return ids == null ? 0 : ids.snapshot.size;
+    }
+    
+    /**
+     * Copy every user's message ids
+     * @return Ascending message ids by mentioned user id
+     */
+    public Map<Integer, int[]> copyAll() {
+        Map<Integer, int[]> copy = new HashMap<>();
+        for (Map.Entry<Integer, IdList> entry : byUser.entrySet()) {
+            Snapshot current = entry.getValue().snapshot;
+            copy.put(entry.getKey(), Arrays.copyOf(current.ids, current.size));
+        }
+        return copy;
+    }
+    
+    /**
+     * Growable array of ascending ints. Appends are synchronized per user; readers
+     * take the published size and array together and never see a partial append.
+     */
+    private static class IdList {
+        private volatile Snapshot snapshot = new Snapshot(new int[4], 0);
+        
+        synchronized void add(int id) {
+            Snapshot current = snapshot;
+            int[] ids = current.ids;
+            int count = current.size;
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            // Ids normally arrive in order; keep the list sorted if one does not
+            int position = count;
+            while (position > 0 && ids[position - 1] > id) {
+                position--;
+            }
+            if (position < count) {
+                ids = ids == current.ids ? ids.clone() : ids;
+                System.arraycopy(ids, position, ids, position + 1, count - position);
+            }
+            ids[position] = id;
+            snapshot = new Snapshot(ids, count + 1);
+        }
+        
+        synchronized void prepend(int[] earlier) {
+            Snapshot current = snapshot;
+            if (current.size > 0 && earlier.length > 0 && earlier[earlier.length - 1] >= current.ids[0]) {
+                // Not all older after all; insert one by one to stay sorted
+                for (int id : earlier) {
+                    add(id);
+                }
+                return;
+            }
+            int[] ids = new int[Math.max(4, earlier.length + current.size)];
+            System.arraycopy(earlier, 0, ids, 0, earlier.length);
+            System.arraycopy(current.ids, 0, ids, earlier.length, current.size);
+            snapshot = new Snapshot(ids, earlier.length + current.size);
+        }
+        
+        List<Integer> viewFrom(int firstId) {
+            Snapshot current = snapshot;
+            int from = Arrays.binarySearch(current.ids, 0, current.size, firstId);
+            if (from < 0) {
+                from = -from - 1;
+            }
+            return new IdView(current.ids, from, current.size);
+        }
+    }
+    
+    /**
+     * Array and size published together
+     */
+    private static class Snapshot {
+        final int[] ids;
+        final int size;
+        
+        Snapshot(int[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+    }
+    
+    /**
+     * Read-only view over part of an id array
+     */
+    private static class IdView extends AbstractList<Integer> implements RandomAccess {
+        private final int[] ids;
+        private final int from;
+        private final int to;
+        
+        IdView(int[] ids, int from, int to) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return ids[from + index];
+        }
+        
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
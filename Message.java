@@ -1,15 +1,28 @@
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Date;
-import java.text.SimpleDateFormat;
+import java.util.List;
 
 /**
- * Represents a chat message
+ * Represents a chat message.
+ * The sender and mentioned users are held as SymbolTable ids and resolved to
+ * names only when asked for.
  */
 public class Message {
-    private String sender;
+    // DateTimeFormatter is immutable and thread-safe, so one instance serves every message
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm").withZone(ZoneId.systemDefault());
+    private static final int MAX_TIMESTAMP_DIGITS = 18;
+    private static final int[] NO_MENTIONS = new int[0];
+    
+    private int senderId;
     private String content;
     private Date timestamp;
     private boolean hasMention;
-    private String mentionedUser;
+    private int[] mentionedUserIds;
     
     /**
      * Constructor for Message
@@ -17,33 +30,88 @@ public class Message {
      * @param content The message content
      */
     public Message(String sender, String content) {
-        this.sender = sender;
+        this(sender, content, new Date());
+    }
+    
+    /**
+     * Constructor for a message with a known timestamp
+     * @param sender The username of the sender
+     * @param content The message content
+     * @param timestamp When the message was sent
+     */
+    public Message(String sender, String content, Date timestamp) {
+        this(SymbolTable.intern(sender), content, timestamp);
+    }
+    
+    /**
+     * Constructor for a message whose sender is already interned
+     * @param senderId The sender's SymbolTable id
+     * @param content The message content
+     * @param timestamp When the message was sent
+     */
+    public Message(int senderId, String content, Date timestamp) {
+        this.senderId = senderId;
         this.content = content;
-        this.timestamp = new Date();
+        this.timestamp = timestamp;
         this.hasMention = false;
+        this.mentionedUserIds = NO_MENTIONS;
         checkForMention();
     }
     
     /**
-     * Check if the message contains a mention (@username)
+     * Check if the message contains mentions (@username) and collect every
+     * mentioned user, scanning the content once without a regex. Only names
+     * already in the SymbolTable count as users: interning every @token would
+     * grow the table, which never shrinks, with whatever people type.
      */
     private void checkForMention() {
-        if (content.contains("@")) {
-            hasMention = true;
-            // Extract mentioned username
-            String[] words = content.split("\\s+");
-            for (String word : words) {
-                if (word.startsWith("@") && word.length() > 1) {
-                    mentionedUser = word.substring(1);
-                    break;
+        if (content.indexOf('@') < 0) {
+            return;
+        }
+        hasMention = true;
+        int[] found = NO_MENTIONS;
+        int count = 0;
+        int length = content.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(content.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(content.charAt(i))) {
+                i++;
+            }
+            if (i - start > 1 && content.charAt(start) == '@') {
+                int id = SymbolTable.lookup(content.substring(start + 1, i));
+                if (id >= 0 && !contains(found, count, id)) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, Math.max(2, count * 2));
+                    }
+                    found[count++] = id;
                 }
             }
         }
+        if (count > 0) {
+            mentionedUserIds = count == found.length ? found : Arrays.copyOf(found, count);
+        }
+    }
+    
+    private static boolean contains(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
     }
     
     // Getters
     public String getSender() {
-        return sender;
+        return SymbolTable.name(senderId);
+    }
+    
+    public int getSenderId() {
+        return senderId;
     }
     
     public String getContent() {
@@ -54,12 +122,46 @@ public class Message {
         return timestamp;
     }
     
+    public void setTimestamp(Date timestamp) {
+        this.timestamp = timestamp;
+    }
+    
     public boolean hasMention() {
         return hasMention;
     }
     
+    /**
+     * Get the first mentioned user
+     * @return The username, or null if the message mentions nobody
+     */
     public String getMentionedUser() {
-        return mentionedUser;
+        return mentionedUserIds.length == 0 ? null : SymbolTable.name(mentionedUserIds[0]);
+    }
+    
+    /**
+     * Get every mentioned user, without duplicates
+     * @return Read-only list of usernames in the order they appear
+     */
+    public List<String> getMentionedUsers() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return SymbolTable.name(mentionedUserIds[index]);
+            }
+            
+            @Override
+            public int size() {
+                return mentionedUserIds.length;
+            }
+        };
+    }
+    
+    /**
+     * Get the SymbolTable ids of every mentioned user
+     * @return Ids in the order they appear; the array must not be modified
+     */
+    public int[] getMentionedUserIds() {
+        return mentionedUserIds;
     }
     
     /**
@@ -67,8 +169,12 @@ public class Message {
      * @return Formatted message string
      */
     public String formatMessage() {
-        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm");
-        return "[" + sdf.format(timestamp) + "] " + sender + ": " + content;
+        String sender = getSender();
+        StringBuilder sb = new StringBuilder(sender.length() + content.length() + 12);
+        sb.append('[');
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(timestamp.getTime()), sb);
+        sb.append("] ").append(sender).append(": ").append(content);
+        return sb.toString();
     }
     
     /**
@@ -76,7 +182,7 @@ public class Message {
      * @return Pipe-delimited message string
      */
     public String toFileFormat() {
-        return timestamp.getTime() + "|" + sender + "|" + content;
+        return timestamp.getTime() + "|" + getSender() + "|" + content;
     }
     
     /**
@@ -85,12 +191,58 @@ public class Message {
      * @return Message object
      */
     public static Message fromFileFormat(String fileString) {
-        String[] parts = fileString.split("\\|", 3);
-        if (parts.length == 3) {
-            Message msg = new Message(parts[1], parts[2]);
-            msg.timestamp = new Date(Long.parseLong(parts[0]));
-            return msg;
+        return fromFileFormat(fileString, 0, fileString.length());
+    }
+    
+    /**
+     * Create a Message from part of a character buffer holding file format.
+     * Scans for the '|' delimiters by hand, so the only objects created are the
+     * message itself, its timestamp and content, and a sender string that is
+     * dropped once the sender is interned.
+     * @param line The buffer, for example a reused StringBuilder
+     * @param start Index of the first character of the record
+     * @param end Index after the last character of the record
+     * @return Message object, or null if the record is malformed
+     */
+    public static Message fromFileFormat(CharSequence line, int start, int end) {
+        int firstPipe = indexOfPipe(line, start, end);
+        if (firstPipe < 0) {
+            return null;
+        }
+        int secondPipe = indexOfPipe(line, firstPipe + 1, end);
+        if (secondPipe < 0) {
+            return null;
+        }
+        
+        // Parse the timestamp in place rather than through substring and parseLong
+        int i = start;
+        boolean negative = i < firstPipe && line.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == firstPipe || firstPipe - i > MAX_TIMESTAMP_DIGITS) {
+            return null;
+        }
+        long time = 0;
+        for (; i < firstPipe; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            time = time * 10 + (c - '0');
+        }
+        
+        String sender = line.subSequence(firstPipe + 1, secondPipe).toString();
+        String content = line.subSequence(secondPipe + 1, end).toString();
+        return new Message(sender, content, new Date(negative ? -time : time));
+    }
+    
+    private static int indexOfPipe(CharSequence line, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (line.charAt(i) == '|') {
+                return i;
+            }
         }
-        return null;
+        return -1;
     }
 }
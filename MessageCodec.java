@@ -0,0 +1,208 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary record format used by binary message log segments.
+ * <p>
+ * A segment starts with the magic bytes "CHLG" and a version byte. Each record is
+ * a varint body length, the body, and a 4-byte CRC32 of the body:
+ * <pre>
+ *   flags      1 byte   FLAG_MENTION, FLAG_ABSOLUTE
+ *   timestamp  varint   zigzag delta from the previous record, or absolute
+ *   sender     varint   id in the segment's sender table
+ *   content    varint   UTF-8 byte length, followed by the bytes
+ * </pre>
+ * Content is length-prefixed, so '|' and newlines inside a message are stored as is.
+ * An encoder instance reuses one buffer and is not thread-safe.
+ */
+public class MessageCodec {
+    public static final byte[] MAGIC = {'C', 'H', 'L', 'G'};
+    public static final byte VERSION = 1;
+    public static final int HEADER_BYTES = MAGIC.length + 1;
+    public static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    public static final int FLAG_MENTION = 1;
+    public static final int FLAG_ABSOLUTE = 2;
+    
+    private final CRC32 crc;
+    private byte[] buffer;
+    
+    /**
+     * Constructor for MessageCodec
+     */
+    public MessageCodec() {
+        this.crc = new CRC32();
+        this.buffer = new byte[256];
+    }
+    
+    /**
+     * Get the segment header
+     * @return Magic bytes followed by the version
+     */
+    public static byte[] header() {
+        byte[] header = Arrays.copyOf(MAGIC, HEADER_BYTES);
+        header[MAGIC.length] = VERSION;
+        return header;
+    }
+    
+    /**
+     * Check a segment header
+     * @param header The first HEADER_BYTES bytes of a segment
+     * @return true if the header is this format and version
+     */
+    public static boolean isHeader(byte[] header) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return header[MAGIC.length] == VERSION;
+    }
+    
+    /**
+     * Encode one record into the reusable buffer
+     * @param message The message to encode
+     * @param senderId The sender's id in the segment's sender table
+     * @param previousTimestamp Timestamp of the previous record, used as the delta base
+     * @param absolute Store the timestamp without a delta, so reading can start here
+     * @return Number of bytes written; the record is at the start of {@link #getBuffer()}
+     */
+    public int encode(Message message, int senderId, long previousTimestamp, boolean absolute) {
+        String content = message.getContent();
+        long time = message.getTimestamp().getTime();
+        long zigzag = zigzag(absolute ? time : time - previousTimestamp);
+        int contentBytes = utf8Length(content);
+        int flags = (message.hasMention() ? FLAG_MENTION : 0) | (absolute ? FLAG_ABSOLUTE : 0);
+        
+        int bodyLength = 1 + varLongSize(zigzag) + varLongSize(senderId)
+                + varLongSize(contentBytes) + contentBytes;
+        if (bodyLength > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Message too large: " + contentBytes + " bytes");
+        }
+        int recordLength = varLongSize(bodyLength) + bodyLength + 4;
+        if (buffer.length < recordLength) {
+            buffer = new byte[Math.max(recordLength, buffer.length * 2)];
+        }
+        
+        int position = putVarLong(buffer, 0, bodyLength);
+        int bodyStart = position;
+        buffer[position++] = (byte) flags;
+        position = putVarLong(buffer, position, zigzag);
+        position = putVarLong(buffer, position, senderId);
+        position = putVarLong(buffer, position, contentBytes);
+        position = putUtf8(buffer, position, content);
+        
+        crc.reset();
+        crc.update(buffer, bodyStart, bodyLength);
+        int checksum = (int) crc.getValue();
+        buffer[position++] = (byte) (checksum >>> 24);
+        buffer[position++] = (byte) (checksum >>> 16);
+        buffer[position++] = (byte) (checksum >>> 8);
+        buffer[position++] = (byte) checksum;
+        return position;
+    }
+    
+    /**
+     * Get the buffer holding the last encoded record
+     * @return The reusable buffer
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+    
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+    
+    static int putVarLong(byte[] out, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+    
+    /**
+     * Read a varint, stopping at the buffer limit
+     * @param in The buffer, positioned at the varint
+     * @return The value, or -1 if the varint is truncated or longer than 10 bytes
+     */
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+    
+    static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+    
+    /**
+     * Encode a string as UTF-8 without an intermediate byte array.
+     * Unpaired surrogates are written as U+FFFD.
+     */
+    static int putUtf8(byte[] out, int position, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int code = Character.toCodePoint((char) c, s.charAt(++i));
+                out[position++] = (byte) (0xF0 | (code >> 18));
+                out[position++] = (byte) (0x80 | ((code >> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (code & 0x3F));
+            } else {
+                if (Character.isSurrogate((char) c)) {
+                    c = 0xFFFD;
+                }
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+}
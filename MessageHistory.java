@@ -0,0 +1,109 @@
+import java.util.List;
+
+/**
+ * Append-only, indexed message history held by a GroupChat.
+ * Implementations are safe for concurrent appends and reads; every view they
+ * return is a fixed snapshot that later appends do not change.
+ * MessageStore keeps Message objects, ColumnarHistory keeps primitive columns.
+ */
+public interface MessageHistory {
+    /**
+     * Append a message
+     * @param message The message to append
+     * @return The index assigned to the message
+     */
+    int append(Message message);
+    
+    /**
+     * Get the number of messages visible to readers
+     * @return Message count
+     */
+    int size();
+    
+    /**
+     * Get a message by index
+     * @param index The message index
+     * @return The message
+     */
+    Message get(int index);
+    
+    /**
+     * Find the index of the first message sent after a time, in O(log n).
+     * Messages are kept in arrival order, which is treated as time order.
+     * @param time Time in milliseconds (exclusive)
+     * @return Message index, or size() if no message is newer
+     */
+    int indexAfter(long time);
+    
+    /**
+     * Get a read-only view of a range of messages
+     * @param from First index (inclusive)
+     * @param to Last index (exclusive)
+     * @return Snapshot view of the range
+     */
+    default List<Message> view(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + " to " + to);
+        }
+        return new HistoryView(this, from, to);
+    }
+    
+    /**
+     * Get a read-only view of every message so far
+     * @return Snapshot view
+     */
+    default List<Message> snapshot() {
+        return new HistoryView(this, 0, size());
+    }
+    
+    /**
+     * Get a read-only view of the last N messages
+     * @param count Number of messages
+     * @return Snapshot view, oldest first
+     */
+    default List<Message> recent(int count) {
+        int size = size();
+        return new HistoryView(this, Math.max(0, size - count), size);
+    }
+    
+    /**
+     * Get a read-only view of messages sent after a time, in O(log n)
+     * @param time Time in milliseconds (exclusive)
+     * @return Snapshot view, oldest first
+     */
+    default List<Message> since(long time) {
+        int size = size();
+        return new HistoryView(this, Math.min(indexAfter(time), size), size);
+    }
+    
+    /**
+     * Get a read-only view of messages sent within a time range, in O(log n)
+     * @param fromTime Start of the range in milliseconds (inclusive)
+     * @param toTime End of the range in milliseconds (exclusive)
+     * @return Snapshot view, oldest first
+     */
+    default List<Message> between(long fromTime, long toTime) {
+        int size = size();
+        int from = Math.min(indexAfter(fromTime - 1), size);
+        int to = Math.max(from, Math.min(indexAfter(toTime - 1), size));
+        return new HistoryView(this, from, to);
+    }
+    
+    /**
+     * Count a range of messages, skipping one sender's own messages
+     * @param from First index (inclusive)
+     * @param to Last index (exclusive)
+     * @param excludedSenderId SymbolTable id of the sender to skip, or -1 for none
+     * @return Statistics for the counted messages
+     */
+    default ChatStatistics statistics(int from, int to, int excludedSenderId) {
+        ChatStatistics statistics = new ChatStatistics();
+        for (int i = from; i < to; i++) {
+            Message message = get(i);
+            if (message.getSenderId() != excludedSenderId) {
+                statistics.record(message);
+            }
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,961 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Segmented, append-only message log that replaces the single chat_history.txt file.
+ * Messages are written to rolling segment files through one long-lived writer, and
+ * every segment keeps a sparse index of (ordinal, timestamp, byte offset) entries so
+ * range and "last N" reads only touch the segments and offsets they need.
+ * <p>
+ * New segments use the binary MessageCodec format, with the segment's sender names
+ * in a ".sym" file next to it. Older text segments (".log", one toFileFormat line
+ * per record) are still read, so a log can hold both.
+ * <p>
+ * In memory-mapped mode binary segments are read through FileChannel.map, so a
+ * read decodes records straight from the page cache and touches only the pages
+ * of the records it needs.
+ * <p>
+ * Closed binary segments can be rewritten in the BlockCodec format (".blk") by
+ * {@link #compressClosedSegments()}, and the oldest segments dropped by
+ * {@link #dropOldest(long, long)}. Both do their file work off the log's lock,
+ * so appends and reads carry on meanwhile.
+ * <p>
+ * The ordinals, sparse indexes and sender tables are only kept in the writing
+ * process, so a log has one owner: opening it takes an exclusive lock on a
+ * lock file in its directory, and a second open, from this process or another,
+ * fails with a {@link LogInUseException} until the first is closed. Two chat
+ * windows therefore cannot share a data directory; give each its own chat.dir.
+ */
+public class MessageLog implements Closeable {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log"; // Text records
+    private static final String BINARY_SUFFIX = ".bin";
+    private static final String COMPRESSED_SUFFIX = ".blk";
+    private static final String SENDERS_SUFFIX = ".sym";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String LOCK_FILE = "writer.lock";
+    // Closing any channel on the lock file drops the process's lock, so a second
+    // open in the same process is refused before it opens one
+    private static final Set<String> openDirectories = ConcurrentHashMap.newKeySet();
+    private static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+    private static final int INDEX_INTERVAL = 64; // Records between sparse index entries
+    
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final List<Segment> segments;
+    private final String lockKey;
+    private final FileChannel lockChannel; // Holds the single-writer lock until close
+    private Segment active;
+    private OutputStream segmentOut;
+    private DataOutputStream indexOut;
+    private DataOutputStream sendersOut;
+    private final MessageCodec codec = new MessageCodec();
+    private final Object compactLock = new Object(); // Taken before the log's own lock
+    private final List<File> undeleted = new ArrayList<>(); // Retried by the next compaction, guarded by compactLock
+    private long nextOrdinal;
+    private boolean memoryMapped;
+    
+    /**
+     * Open (or create) a message log with the default segment size
+     * @param directory The directory holding the segment files
+     * @throws LogInUseException If another log has the directory open
+     * @throws IOException If the directory cannot be read or created
+     */
+    public MessageLog(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+    
+    /**
+     * Open (or create) a message log
+     * @param directory The directory holding the segment files
+     * @param maxSegmentBytes Size after which the active segment is rolled
+     * @throws LogInUseException If another log has the directory open
+     * @throws IOException If the directory cannot be read or created
+     */
+    public MessageLog(File directory, long maxSegmentBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory: " + directory);
+        }
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.segments = new ArrayList<>();
+        this.lockKey = directory.getCanonicalPath();
+        if (!openDirectories.add(lockKey)) {
+            throw new LogInUseException(directory, "Message log " + directory + " is already open in this process");
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                throw new LogInUseException(directory, "Message log " + directory + " is in use by another process");
+            }
+            this.lockChannel = channel;
+            loadSegments();
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            openDirectories.remove(lockKey);
+            throw e;
+        }
+    }
+    
+    /**
+     * Discover existing segments and recover their indexes
+     */
+    private void loadSegments() throws IOException {
+        // Left by a compression that did not finish; the raw segment is still there
+        File[] partial = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX)
+                && name.endsWith(COMPRESSED_SUFFIX + ".tmp"));
+        if (partial != null) {
+            for (File file : partial) {
+                if (!file.delete()) {
+                    System.err.println("Could not delete " + file);
+                }
+            }
+        }
+        
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX)
+                && (name.endsWith(SEGMENT_SUFFIX) || name.endsWith(BINARY_SUFFIX)
+                || name.endsWith(COMPRESSED_SUFFIX)));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                long base = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.lastIndexOf('.')));
+                Segment segment = new Segment(base, file);
+                Segment previous = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (previous != null && previous.baseOrdinal == base) {
+                    // Compressed just before a crash; the ".blk" copy is complete, so it wins
+                    if (!segment.compressed) {
+                        continue;
+                    }
+                    segments.remove(segments.size() - 1);
+                    if (!delete(previous.file) || !delete(previous.indexFile)) {
+                        throw new IOException("Cannot delete " + previous.file + " or its index");
+                    }
+                }
+                segment.recover();
+                segments.add(segment);
+            }
+        }
+        
+        if (segments.isEmpty()) {
+            nextOrdinal = 0;
+        } else {
+            Segment last = segments.get(segments.size() - 1);
+            nextOrdinal = last.baseOrdinal + last.recordCount;
+        }
+    }
+    
+    /**
+     * Append a message to the active segment. The write is buffered; call
+     * {@link #flush()} or {@link #sync()} to make it visible on disk.
+     * @param message The message to append
+     * @return The ordinal assigned to the message
+     * @throws IOException If the write fails
+     */
+    public synchronized long append(Message message) throws IOException {
+        if (active == null || active.sizeBytes >= maxSegmentBytes) {
+            roll();
+        }
+        
+        long ordinal = nextOrdinal;
+        long timestamp = message.getTimestamp().getTime();
+        // Indexed records carry an absolute timestamp so reads can start at them
+        boolean indexed = (ordinal - active.baseOrdinal) % INDEX_INTERVAL == 0;
+        int length = codec.encode(message, senderId(message.getSender()),
+                active.previousTimestamp, indexed);
+        
+        active.onAppend(ordinal, timestamp, active.sizeBytes, indexOut);
+        segmentOut.write(codec.getBuffer(), 0, length);
+        active.sizeBytes += length;
+        nextOrdinal++;
+        return ordinal;
+    }
+    
+    /**
+     * Look up a sender in the active segment, adding it to the segment's
+     * sender file on first use
+     */
+    private int senderId(String sender) throws IOException {
+        Integer id = active.senderIds.get(sender);
+        if (id == null) {
+            // Flushed at once so no record on disk refers to an unwritten name
+            sendersOut.writeUTF(sender);
+            sendersOut.flush();
+            id = active.addSender(sender);
+        }
+        return id;
+    }
+    
+    /**
+     * Flush buffered records to the operating system
+     * @throws IOException If the flush fails
+     */
+    public synchronized void flush() throws IOException {
+        if (segmentOut != null) {
+            segmentOut.flush();
+            indexOut.flush();
+        }
+    }
+    
+    /**
+     * Flush buffered records and force them to the storage device
+     * @throws IOException If the flush or fsync fails
+     */
+    public synchronized void sync() throws IOException {
+        flush();
+        if (segmentOut != null) {
+            active.sendersChannel.force(false);
+            active.channel.force(false);
+        }
+    }
+    
+    /**
+     * Choose how binary segments are read
+     * @param memoryMapped true to map segments into memory, false to stream them
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+    
+    /**
+     * Close the active segment and start a new one at the next ordinal
+     */
+    private void roll() throws IOException {
+        closeWriters();
+        
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last != null && last.binary && !last.compressed
+                && (last.recordCount == 0 || last.sizeBytes < maxSegmentBytes)) {
+            // Keep writing to the trailing segment after a restart
+            active = last;
+        } else {
+            File file = new File(directory, String.format("%s%020d%s",
+                    SEGMENT_PREFIX, nextOrdinal, BINARY_SUFFIX));
+            active = new Segment(nextOrdinal, file);
+            segments.add(active);
+        }
+        
+        FileOutputStream fos = new FileOutputStream(active.file, true);
+        active.channel = fos.getChannel();
+        segmentOut = new BufferedOutputStream(fos, 64 * 1024);
+        if (active.sizeBytes == 0) {
+            segmentOut.write(MessageCodec.header());
+            active.sizeBytes = MessageCodec.HEADER_BYTES;
+        }
+        indexOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(active.indexFile, true)));
+        FileOutputStream sendersFile = new FileOutputStream(active.sendersFile, true);
+        active.sendersChannel = sendersFile.getChannel();
+        sendersOut = new DataOutputStream(new BufferedOutputStream(sendersFile));
+    }
+    
+    private void closeWriters() throws IOException {
+        if (segmentOut != null) {
+            segmentOut.close();
+            indexOut.close();
+            sendersOut.close();
+            segmentOut = null;
+            indexOut = null;
+            sendersOut = null;
+            active.channel = null;
+            active.sendersChannel = null;
+        }
+    }
+    
+    /**
+     * Get the number of messages in the log
+     * @return Total record count
+     */
+    public synchronized long size() {
+        return nextOrdinal - firstOrdinal();
+    }
+    
+    /**
+     * Get the ordinal of the oldest message in the log
+     * @return First ordinal; equal to the next ordinal if the log is empty
+     */
+    public synchronized long getFirstOrdinal() {
+        return firstOrdinal();
+    }
+    
+    private long firstOrdinal() {
+        return segments.isEmpty() ? nextOrdinal : segments.get(0).baseOrdinal;
+    }
+    
+    /**
+     * Get the size of the log's segment files on disk
+     * @return Total bytes of records, compressed or not
+     */
+    public synchronized long getSizeBytes() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.sizeBytes;
+        }
+        return size;
+    }
+    
+    /**
+     * Read every message in the log
+     * @return List of messages in append order
+     * @throws IOException If a segment cannot be read
+     */
+    public List<Message> readAll() throws IOException {
+        return read(0, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Read the last N messages, touching only the tail segments
+     * @param count Number of messages to read
+     * @return List of messages in append order
+     * @throws IOException If a segment cannot be read
+     */
+    public synchronized List<Message> readLast(int count) throws IOException {
+        return read(Math.max(firstOrdinal(), nextOrdinal - count), nextOrdinal);
+    }
+    
+    /**
+     * Read messages by ordinal
+     * @param fromOrdinal First ordinal to read (inclusive)
+     * @param toOrdinal Last ordinal to read (exclusive)
+     * @return List of messages in append order
+     * @throws IOException If a segment cannot be read
+     */
+    public List<Message> read(long fromOrdinal, long toOrdinal) throws IOException {
+        return read(fromOrdinal, toOrdinal, false);
+    }
+    
+    /**
+     * Read messages by ordinal, keeping a null in place of every record that
+     * cannot be parsed, such as a damaged line in a text segment, so that list
+     * positions stay equal to ordinals
+     * @param fromOrdinal First ordinal to read (inclusive)
+     * @param toOrdinal Last ordinal to read (exclusive)
+     * @return List of messages or nulls in append order
+     * @throws IOException If a segment cannot be read
+     */
+    public List<Message> readWithGaps(long fromOrdinal, long toOrdinal) throws IOException {
+        return read(fromOrdinal, toOrdinal, true);
+    }
+    
+    private synchronized List<Message> read(long fromOrdinal, long toOrdinal, boolean keepGaps)
+            throws IOException {
+        flush();
+        List<Message> messages = new ArrayList<>();
+        for (Segment segment : segments) {
+            long segmentEnd = segment.baseOrdinal + segment.recordCount;
+            if (segmentEnd <= fromOrdinal || segment.baseOrdinal >= toOrdinal) {
+                continue;
+            }
+            int entry = segment.floorEntryByOrdinal(fromOrdinal);
+            long ordinal = segment.indexOrdinals[entry];
+            try (RecordReader reader = segment.openAt(segment.indexOffsets[entry], memoryMapped)) {
+                while (ordinal < toOrdinal && reader.nextRecord()) {
+                    if (ordinal >= fromOrdinal) {
+                        Message msg = reader.parseRecord();
+                        if (msg != null || keepGaps) {
+                            messages.add(msg);
+                        }
+                    }
+                    ordinal++;
+                }
+            }
+        }
+        return messages;
+    }
+    
+    /**
+     * Read messages whose timestamp falls inside a time range. Records are
+     * stored in append order, which is treated as time order.
+     * @param fromTime Start of the range in milliseconds (inclusive)
+     * @param toTime End of the range in milliseconds (inclusive)
+     * @return List of messages in append order
+     * @throws IOException If a segment cannot be read
+     */
+    public synchronized List<Message> readRange(long fromTime, long toTime) throws IOException {
+        flush();
+        List<Message> messages = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.recordCount == 0 || segment.lastTimestamp < fromTime) {
+                continue;
+            }
+            if (segment.indexTimestamps[0] > toTime) {
+                break;
+            }
+            int entry = segment.floorEntryByTimestamp(fromTime);
+            try (RecordReader reader = segment.openAt(segment.indexOffsets[entry], memoryMapped)) {
+                Message msg;
+                while ((msg = reader.next()) != null) {
+                    long time = msg.getTimestamp().getTime();
+                    if (time > toTime) {
+                        return messages;
+                    }
+                    if (time >= fromTime) {
+                        messages.add(msg);
+                    }
+                }
+            }
+        }
+        return messages;
+    }
+    
+    /**
+     * Rewrite every closed binary segment in the block-compressed format.
+     * The active segment and the last segment, which is written to after a
+     * restart, stay as they are. Each segment is compressed without holding the
+     * log's lock and then swapped in, so reads never see a partial segment.
+     * @return Number of segments compressed
+     * @throws IOException If a segment cannot be read or its compressed copy written
+     */
+    public int compressClosedSegments() throws IOException {
+        synchronized (compactLock) {
+            retryDeletes();
+            List<Segment> closed = new ArrayList<>();
+            synchronized (this) {
+                for (int i = 0; i < segments.size() - 1; i++) {
+                    Segment segment = segments.get(i);
+                    if (segment.binary && !segment.compressed && segment != active && segment.recordCount > 0) {
+                        closed.add(segment);
+                    }
+                }
+            }
+            
+            int compressed = 0;
+            for (Segment segment : closed) {
+                Segment replacement = segment.compress();
+                synchronized (this) {
+                    segments.set(segments.indexOf(segment), replacement);
+                    // Reads hold the lock, so none is using the mapping any more
+                    segment.mapping = null;
+                }
+                deleteLater(segment.file);
+                deleteLater(segment.indexFile);
+                compressed++;
+            }
+            return compressed;
+        }
+    }
+    
+    /**
+     * Delete the oldest segments while they are older than a time or the log is
+     * larger than a size. Only whole segments are dropped, and never the last one.
+     * Ordinals of the remaining messages do not change, but the first ordinal moves
+     * up, so anything that numbers messages from it must be rebuilt.
+     * @param olderThan Drop segments whose newest message is before this time (ms); Long.MIN_VALUE keeps any age
+     * @param maxBytes Drop segments until the log is at most this many bytes; Long.MAX_VALUE keeps any size
+     * @return Number of messages dropped
+     * @throws IOException If a segment file cannot be deleted
+     */
+    public long dropOldest(long olderThan, long maxBytes) throws IOException {
+        synchronized (compactLock) {
+            retryDeletes();
+            List<Segment> dropped = new ArrayList<>();
+            long messages = 0;
+            synchronized (this) {
+                long size = getSizeBytes();
+                while (segments.size() > 1) {
+                    Segment oldest = segments.get(0);
+                    if (oldest.lastTimestamp >= olderThan && size <= maxBytes) {
+                        break;
+                    }
+                    segments.remove(0);
+                    oldest.mapping = null;
+                    size -= oldest.sizeBytes;
+                    messages += oldest.recordCount;
+                    dropped.add(oldest);
+                }
+            }
+            for (Segment segment : dropped) {
+                deleteLater(segment.file);
+                deleteLater(segment.indexFile);
+                deleteLater(segment.sendersFile);
+            }
+            return messages;
+        }
+    }
+    
+    /**
+     * Delete a file if it exists
+     * @return false if the file is still there
+     */
+    private static boolean delete(File file) {
+        return file.delete() || !file.exists();
+    }
+    
+    /**
+     * Delete a file of a segment that has left the log, or remember it for the
+     * next compaction if it cannot be deleted yet. A file stays mapped until
+     * its dropped MappedByteBuffer is collected, and some systems refuse to
+     * delete a mapped file until then.
+     */
+    private void deleteLater(File file) {
+        if (!delete(file)) {
+            System.err.println("Could not delete " + file + " yet; will retry");
+            undeleted.add(file);
+        }
+    }
+    
+    private void retryDeletes() {
+        undeleted.removeIf(MessageLog::delete);
+    }
+    
+    /**
+     * Import messages from the legacy pipe-delimited chat_history.txt format
+     * @param legacyFile The legacy history file
+     * @return Number of messages imported
+     * @throws IOException If the legacy file cannot be read or the log written
+     */
+    public synchronized int importLegacy(File legacyFile) throws IOException {
+        int imported = 0;
+        try (MessageReader reader = new MessageReader(new InputStreamReader(
+                new FileInputStream(legacyFile), StandardCharsets.UTF_8))) {
+            Message msg;
+            while ((msg = reader.next()) != null) {
+                append(msg);
+                imported++;
+            }
+        }
+        sync();
+        return imported;
+    }
+    
+    /**
+     * Flush and close the active segment, and release the log to other writers
+     * @throws IOException If the final flush fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (segmentOut != null) {
+                sync();
+            }
+            closeWriters();
+            active = null;
+        } finally {
+            if (lockChannel.isOpen()) {
+                // Closing the channel releases the lock
+                lockChannel.close();
+                openDirectories.remove(lockKey);
+            }
+        }
+    }
+    
+    /**
+     * A single segment file with its in-memory sparse index
+     */
+    private static class Segment {
+        private final long baseOrdinal;
+        private final File file;
+        private final File indexFile;
+        private final File sendersFile;
+        private final boolean binary;
+        private final boolean compressed;
+        private long recordCount;
+        private long sizeBytes;
+        private long lastTimestamp = Long.MIN_VALUE;
+        private long previousTimestamp; // Actual timestamp of the last record, the delta base
+        private FileChannel channel;
+        private FileChannel sendersChannel;
+        private MappedByteBuffer mapping;
+        
+        // Sender table of a binary segment
+        private final List<String> senderNames = new ArrayList<>();
+        private final Map<String, Integer> senderIds = new HashMap<>();
+        
+        // Sparse index, one entry every INDEX_INTERVAL records
+        private long[] indexOrdinals = new long[16];
+        private long[] indexTimestamps = new long[16];
+        private long[] indexOffsets = new long[16];
+        private int indexSize;
+        
+        Segment(long baseOrdinal, File file) {
+            this.baseOrdinal = baseOrdinal;
+            this.file = file;
+            String name = file.getName();
+            String stem = name.substring(0, name.lastIndexOf('.'));
+            this.indexFile = new File(file.getParentFile(), stem + INDEX_SUFFIX);
+            this.sendersFile = new File(file.getParentFile(), stem + SENDERS_SUFFIX);
+            this.compressed = name.endsWith(COMPRESSED_SUFFIX);
+            this.binary = compressed || name.endsWith(BINARY_SUFFIX);
+        }
+        
+        int addSender(String sender) {
+            int id = senderNames.size();
+            senderNames.add(sender);
+            senderIds.put(sender, id);
+            return id;
+        }
+        
+        /**
+         * Record an append, writing a sparse index entry when one is due
+         */
+        void onAppend(long ordinal, long timestamp, long offset, DataOutputStream indexOut)
+                throws IOException {
+            // Index timestamps are a running maximum so binary search stays valid
+            long indexed = Math.max(timestamp, lastTimestamp);
+            if ((ordinal - baseOrdinal) % INDEX_INTERVAL == 0) {
+                addEntry(ordinal, indexed, offset);
+                indexOut.writeLong(ordinal);
+                indexOut.writeLong(indexed);
+                indexOut.writeLong(offset);
+            }
+            lastTimestamp = indexed;
+            previousTimestamp = timestamp;
+            recordCount++;
+        }
+        
+        private void addEntry(long ordinal, long timestamp, long offset) {
+            if (indexSize == indexOrdinals.length) {
+                int capacity = indexSize * 2;
+                indexOrdinals = Arrays.copyOf(indexOrdinals, capacity);
+                indexTimestamps = Arrays.copyOf(indexTimestamps, capacity);
+                indexOffsets = Arrays.copyOf(indexOffsets, capacity);
+            }
+            indexOrdinals[indexSize] = ordinal;
+            indexTimestamps[indexSize] = timestamp;
+            indexOffsets[indexSize] = offset;
+            indexSize++;
+        }
+        
+        /**
+         * Load the sparse index and scan only the unindexed tail of the segment.
+         * A missing or truncated index file is rebuilt from the segment itself.
+         */
+        void recover() throws IOException {
+            if (compressed) {
+                loadSenders();
+                loadBlocks();
+                return;
+            }
+            if (binary) {
+                loadSenders();
+                checkHeader();
+            }
+            sizeBytes = file.length();
+            if (indexFile.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(indexFile)))) {
+                    long entries = indexFile.length() / 24;
+                    for (long i = 0; i < entries; i++) {
+                        long ordinal = in.readLong();
+                        long timestamp = in.readLong();
+                        long offset = in.readLong();
+                        if (offset >= sizeBytes) {
+                            break;
+                        }
+                        addEntry(ordinal, timestamp, offset);
+                    }
+                }
+            }
+            
+            // Drop index entries that were written past a torn record
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+                raf.setLength(indexSize * 24L);
+            }
+            
+            // Scan from the last indexed record to the end of the segment
+            long ordinal = baseOrdinal;
+            long offset = binary && sizeBytes > 0 ? MessageCodec.HEADER_BYTES : 0;
+            if (indexSize > 0) {
+                ordinal = indexOrdinals[indexSize - 1];
+                offset = indexOffsets[indexSize - 1];
+                lastTimestamp = indexTimestamps[indexSize - 1];
+            }
+            recordCount = ordinal - baseOrdinal;
+            long end;
+            
+            try (DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile, true)))) {
+                end = binary ? scanBinary(ordinal, offset, indexOut)
+                        : scanText(ordinal, offset, indexOut);
+            }
+            
+            // Drop a torn trailing record left behind by a crash
+            if (end < sizeBytes) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(end);
+                }
+                sizeBytes = end;
+            }
+        }
+        
+        /**
+         * Count and index text records from an offset
+         * @return Offset after the last complete record
+         */
+        private long scanText(long ordinal, long offset, DataOutputStream indexOut) throws IOException {
+            try (InputStream in = new BufferedInputStream(openStream(offset))) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+                long lineStart = offset;
+                long position = offset;
+                int b;
+                while ((b = in.read()) != -1) {
+                    position++;
+                    if (b != '\n') {
+                        line.write(b);
+                        continue;
+                    }
+                    if (indexSize > 0 && ordinal == indexOrdinals[indexSize - 1]) {
+                        // Already indexed, it only needs counting
+                        recordCount++;
+                    } else {
+                        Message msg = Message.fromFileFormat(line.toString(StandardCharsets.UTF_8.name()));
+                        long timestamp = msg != null ? msg.getTimestamp().getTime() : lastTimestamp;
+                        onAppend(ordinal, timestamp, lineStart, indexOut);
+                    }
+                    ordinal++;
+                    line.reset();
+                    lineStart = position;
+                }
+                return lineStart;
+            }
+        }
+        
+        /**
+         * Count and index binary records from an offset, checking each CRC
+         * @return Offset after the last valid record
+         */
+        private long scanBinary(long ordinal, long offset, DataOutputStream indexOut) throws IOException {
+            if (sizeBytes == 0) {
+                return 0;
+            }
+            try (BinaryMessageReader reader = (BinaryMessageReader) openAt(offset, false)) {
+                while (reader.nextRecord()) {
+                    if (indexSize > 0 && ordinal == indexOrdinals[indexSize - 1]) {
+                        // Already indexed, it only needs counting
+                        recordCount++;
+                        previousTimestamp = reader.timestamp();
+                    } else {
+                        onAppend(ordinal, reader.timestamp(), offset + reader.recordOffset(), indexOut);
+                    }
+                    ordinal++;
+                }
+                return offset + reader.validBytes();
+            }
+        }
+        
+        /**
+         * Build the index of a compressed segment from its block headers: one
+         * entry per block. Compressed segments are only ever written whole.
+         */
+        private void loadBlocks() throws IOException {
+            sizeBytes = file.length();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                byte[] header = new byte[BlockCodec.HEADER_BYTES];
+                raf.readFully(header);
+                if (!BlockCodec.isHeader(header)) {
+                    throw new IOException("Unsupported segment format: " + file);
+                }
+                ByteBuffer fields = ByteBuffer.wrap(header, BlockCodec.MAGIC.length + 1, 16);
+                long count = fields.getLong();
+                lastTimestamp = fields.getLong();
+                long ordinal = baseOrdinal;
+                long offset = BlockCodec.HEADER_BYTES;
+                while (offset < sizeBytes) {
+                    raf.seek(offset);
+                    int records = raf.readInt();
+                    long timestamp = raf.readLong();
+                    raf.readInt(); // Raw length
+                    int length = raf.readInt();
+                    addEntry(ordinal, timestamp, offset);
+                    ordinal += records;
+                    offset += BlockCodec.BLOCK_HEADER_BYTES + length;
+                }
+                recordCount = ordinal - baseOrdinal;
+                if (recordCount != count || offset != sizeBytes) {
+                    throw new IOException("Corrupt compressed segment: " + file);
+                }
+            } catch (EOFException e) {
+                throw new IOException("Truncated compressed segment: " + file, e);
+            }
+        }
+        
+        /**
+         * Write a compressed copy of this closed binary segment, one block per run
+         * of sparse index entries, next to it
+         * @return The compressed segment, sharing this segment's sender table
+         */
+        Segment compress() throws IOException {
+            String name = file.getName();
+            File target = new File(file.getParentFile(), name.substring(0, name.lastIndexOf('.')) + COMPRESSED_SUFFIX);
+            File temp = new File(target.getPath() + ".tmp");
+            BlockCodec blockCodec = new BlockCodec();
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 FileOutputStream fos = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+                out.write(BlockCodec.header(recordCount, lastTimestamp));
+                byte[] records = new byte[BlockCodec.TARGET_BLOCK_BYTES];
+                int entry = 0;
+                while (entry < indexSize) {
+                    int next = entry + 1;
+                    while (next < indexSize && indexOffsets[next] - indexOffsets[entry] < BlockCodec.TARGET_BLOCK_BYTES) {
+                        next++;
+                    }
+                    long from = indexOffsets[entry];
+                    long to = next < indexSize ? indexOffsets[next] : sizeBytes;
+                    long endOrdinal = next < indexSize ? indexOrdinals[next] : baseOrdinal + recordCount;
+                    int rawLength = (int) (to - from);
+                    if (records.length < rawLength) {
+                        records = new byte[rawLength];
+                    }
+                    ByteBuffer raw = ByteBuffer.wrap(records, 0, rawLength);
+                    while (raw.hasRemaining()) {
+                        if (in.read(raw, from + raw.position()) < 0) {
+                            throw new EOFException("Segment ends before offset " + to + ": " + file);
+                        }
+                    }
+                    int length = blockCodec.compress(records, rawLength);
+                    out.writeInt((int) (endOrdinal - indexOrdinals[entry]));
+                    out.writeLong(indexTimestamps[entry]);
+                    out.writeInt(rawLength);
+                    out.writeInt(length);
+                    out.write(blockCodec.getBuffer(), 0, length);
+                    entry = next;
+                }
+                out.flush();
+                fos.getChannel().force(false);
+            } finally {
+                blockCodec.end();
+            }
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Could not create " + target);
+            }
+            Segment segment = new Segment(baseOrdinal, target);
+            segment.recover();
+            return segment;
+        }
+        
+        /**
+         * Load the sender table, dropping a torn trailing name
+         */
+        private void loadSenders() throws IOException {
+            if (!sendersFile.exists()) {
+                return;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(sendersFile, "rw")) {
+                long valid = 0;
+                try {
+                    while (valid < raf.length()) {
+                        addSender(raf.readUTF());
+                        valid = raf.getFilePointer();
+                    }
+                } catch (EOFException | UTFDataFormatException e) {
+                    // Torn write; everything before it is intact
+                    raf.setLength(valid);
+                }
+            }
+        }
+        
+        /**
+         * Verify the format header of a binary segment. A segment too short to
+         * hold one is emptied and gets a fresh header when it is next written.
+         */
+        private void checkHeader() throws IOException {
+            if (file.length() < MessageCodec.HEADER_BYTES) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(0);
+                }
+                return;
+            }
+            byte[] header = new byte[MessageCodec.HEADER_BYTES];
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                in.readFully(header);
+            }
+            if (!MessageCodec.isHeader(header)) {
+                throw new IOException("Unsupported segment format: " + file);
+            }
+        }
+        
+        /**
+         * Get a read-only view of the segment from an offset, mapping the file on
+         * first use and mapping it again once appends have grown it past the mapping
+         */
+        private ByteBuffer mapFrom(long offset) throws IOException {
+            if (mapping == null || mapping.capacity() < sizeBytes) {
+                try (FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    mapping = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, sizeBytes);
+                }
+            }
+            ByteBuffer view = mapping.duplicate();
+            view.limit((int) sizeBytes);
+            view.position((int) offset);
+            return view;
+        }
+        
+        private InputStream openStream(long offset) throws IOException {
+            FileInputStream fis = new FileInputStream(file);
+            fis.getChannel().position(offset);
+            return fis;
+        }
+        
+        RecordReader openAt(long offset, boolean mapped) throws IOException {
+            if (compressed) {
+                return new BinaryMessageReader(Channels.newChannel(new BlockInputStream(file, offset)), senderNames);
+            }
+            if (binary && mapped && sizeBytes <= Integer.MAX_VALUE) {
+                return new BinaryMessageReader(mapFrom(offset), senderNames);
+            }
+            if (binary) {
+                FileInputStream fis = new FileInputStream(file);
+                fis.getChannel().position(offset);
+                return new BinaryMessageReader(fis.getChannel(), senderNames);
+            }
+            return new MessageReader(new InputStreamReader(openStream(offset),
+                    StandardCharsets.UTF_8));
+        }
+        
+        /**
+         * Find the last index entry at or before an ordinal
+         */
+        int floorEntryByOrdinal(long ordinal) {
+            int lo = 0;
+            int hi = indexSize - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (indexOrdinals[mid] <= ordinal) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+        
+        /**
+         * Find the last index entry whose timestamp is before a time, so that
+         * every earlier record is known to be older than the time
+         */
+        int floorEntryByTimestamp(long time) {
+            int lo = 0;
+            int hi = indexSize - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (indexTimestamps[mid] < time) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads file-format message records line by line into buffers that are reused
+ * for every line. Unlike BufferedReader.readLine, no String is created per line;
+ * the only allocations per record are those of the Message itself.
+ */
+public class MessageReader implements RecordReader {
+    private static final int BUFFER_CHARS = 8192;
+    
+    private final Reader in;
+    private final char[] buffer;
+    private final StringBuilder line;
+    private int position;
+    private int limit;
+    
+    /**
+     * Constructor for MessageReader
+     * @param in The character source; it does not need to be buffered
+     */
+    public MessageReader(Reader in) {
+        this.in = in;
+        this.buffer = new char[BUFFER_CHARS];
+        this.line = new StringBuilder(256);
+    }
+    
+    /**
+     * Advance to the next line, without parsing it
+     * @return false at end of input
+     * @throws IOException If the source cannot be read
+     */
+    @Override
+    public boolean nextRecord() throws IOException {
+        line.setLength(0);
+        boolean any = false;
+        while (true) {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return any;
+                }
+            }
+            any = true;
+            int start = position;
+            while (position < limit && buffer[position] != '\n') {
+                position++;
+            }
+            line.append(buffer, start, position - start);
+            if (position < limit) {
+                position++; // Consume the newline
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Parse the current line
+     * @return Message object, or null if the line is malformed
+     */
+    @Override
+    public Message parseRecord() {
+        return Message.fromFileFormat(line, 0, line.length());
+    }
+    
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
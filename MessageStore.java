@@ -0,0 +1,228 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free, append-only message store used by GroupChat.
+ * Messages live in buckets that double in size (32, 64, 128, ...), so appends never
+ * copy existing elements. A writer claims a slot with one atomic increment, fills it,
+ * and then advances a volatile publish index over every consecutive filled slot,
+ * helping slower writers along instead of waiting for them. Readers only ever look
+ * below the publish index, so any view is a consistent snapshot that never changes.
+ * <p>
+ * Alongside each message the store keeps the running maximum timestamp up to that
+ * point, written as the slot is published. Since it never decreases, time-range
+ * lookups are a binary search over it.
+ */
+public class MessageStore implements MessageHistory {
+    private static final int FIRST_BUCKET_BITS = 5;
+    private static final int FIRST_BUCKET_SIZE = 1 << FIRST_BUCKET_BITS;
+    private static final int BUCKET_COUNT = 32 - FIRST_BUCKET_BITS;
+    
+    private final AtomicReferenceArray<AtomicReferenceArray<Message>> buckets;
+    private final AtomicReferenceArray<AtomicLongArray> maxTimestamps;
+    private final AtomicInteger reserved;
+    private final AtomicInteger published;
+    
+    /**
+     * Constructor for MessageStore
+     */
+    public MessageStore() {
+        this.buckets = new AtomicReferenceArray<>(BUCKET_COUNT);
+        this.maxTimestamps = new AtomicReferenceArray<>(BUCKET_COUNT);
+        this.reserved = new AtomicInteger();
+        this.published = new AtomicInteger();
+    }
+    
+    /**
+     * Append a message. Never blocks; the message becomes visible to readers
+     * once every earlier append has also completed.
+     * @param message The message to append
+     * @return The index assigned to the message
+     */
+    @Override
+    public int append(Message message) {
+        int index = reserved.getAndIncrement();
+        if (index < 0) {
+            throw new IllegalStateException("Message store is full");
+        }
+        slotBucket(index).set(slotOffset(index), message);
+        publish();
+        return index;
+    }
+    
+    /**
+     * Advance the publish index over every filled slot, recording each slot's
+     * running maximum timestamp before it becomes visible
+     */
+    private void publish() {
+        int current = published.get();
+        while (current < reserved.get()) {
+            AtomicReferenceArray<Message> bucket = buckets.get(bucketOf(current));
+            Message message = bucket == null ? null : bucket.get(slotOffset(current));
+            if (message == null) {
+                // An earlier writer is still filling its slot; it will publish ours
+                return;
+            }
+            
+            // Helpers racing on the same slot compute the same value
+            long previous = current == 0 ? Long.MIN_VALUE : maxTimestampAt(current - 1);
+            long maxTimestamp = Math.max(previous, message.getTimestamp().getTime());
+            timesBucket(current).set(slotOffset(current), maxTimestamp);
+            
+            published.compareAndSet(current, current + 1);
+            current = published.get();
+        }
+    }
+    
+    private AtomicLongArray timesBucket(int index) {
+        int bucketIndex = bucketOf(index);
+        AtomicLongArray bucket = maxTimestamps.get(bucketIndex);
+        if (bucket == null) {
+            maxTimestamps.compareAndSet(bucketIndex, null,
+                    new AtomicLongArray(FIRST_BUCKET_SIZE << bucketIndex));
+            bucket = maxTimestamps.get(bucketIndex);
+        }
+        return bucket;
+    }
+    
+    private long maxTimestampAt(int index) {
+        return maxTimestamps.get(bucketOf(index)).get(slotOffset(index));
+    }
+    
+    /**
+     * Get the bucket for a slot, installing it if no writer has yet
+     */
+    private AtomicReferenceArray<Message> slotBucket(int index) {
+        int bucketIndex = bucketOf(index);
+        AtomicReferenceArray<Message> bucket = buckets.get(bucketIndex);
+        if (bucket == null) {
+            buckets.compareAndSet(bucketIndex, null,
+                    new AtomicReferenceArray<>(FIRST_BUCKET_SIZE << bucketIndex));
+            bucket = buckets.get(bucketIndex);
+        }
+        return bucket;
+    }
+    
+    private static int bucketOf(int index) {
+        int position = index + FIRST_BUCKET_SIZE;
+        return (31 - Integer.numberOfLeadingZeros(position)) - FIRST_BUCKET_BITS;
+    }
+    
+    private static int slotOffset(int index) {
+        int position = index + FIRST_BUCKET_SIZE;
+        return position - Integer.highestOneBit(position);
+    }
+    
+    /**
+     * Get the number of published messages
+     * @return Message count
+     */
+    @Override
+    public int size() {
+        return published.get();
+    }
+    
+    /**
+     * Get a published message by index
+     * @param index The message index
+     * @return The message
+     */
+    @Override
+    public Message get(int index) {
+        if (index < 0 || index >= published.get()) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return buckets.get(bucketOf(index)).get(slotOffset(index));
+    }
+    
+    /**
+     * Find the first message newer than a time
+     * @param time Time in milliseconds
+     * @param size Number of published messages to search
+     * @return Index of the first message after the time, or size if none
+     */
+    private int firstIndexAfter(long time, int size) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (maxTimestampAt(mid) > time) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+    
+    /**
+     * Find the index of the first published message sent after a time, in O(log n)
+     * @param time Time in milliseconds (exclusive)
+     * @return Message index, or size() if no message is newer
+     */
+    @Override
+    public int indexAfter(long time) {
+        return firstIndexAfter(time, published.get());
+    }
+    
+    /**
+     * Get a read-only view of messages sent after a time, in O(log n)
+     * @param time Time in milliseconds (exclusive)
+     * @return Snapshot view, oldest first
+     */
+    @Override
+    public List<Message> since(long time) {
+        int size = published.get();
+        return new HistoryView(this, firstIndexAfter(time, size), size);
+    }
+    
+    /**
+     * Get a read-only view of messages sent within a time range, in O(log n)
+     * @param fromTime Start of the range in milliseconds (inclusive)
+     * @param toTime End of the range in milliseconds (exclusive)
+     * @return Snapshot view, oldest first
+     */
+    @Override
+    public List<Message> between(long fromTime, long toTime) {
+        int size = published.get();
+        int from = firstIndexAfter(fromTime - 1, size);
+        int to = Math.max(from, firstIndexAfter(toTime - 1, size));
+        return new HistoryView(this, from, to);
+    }
+    
+    /**
+     * Get a read-only view of every message published so far
+     * @return Snapshot view; later appends are not visible through it
+     */
+    @Override
+    public List<Message> snapshot() {
+        return new HistoryView(this, 0, published.get());
+    }
+    
+    /**
+     * Get a read-only view of a range of published messages
+     * @param from First index (inclusive)
+     * @param to Last index (exclusive)
+     * @return Snapshot view of the range
+     */
+    @Override
+    public List<Message> view(int from, int to) {
+        if (from < 0 || to > published.get() || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + " to " + to);
+        }
+        return new HistoryView(this, from, to);
+    }
+    
+    /**
+     * Get a read-only view of the last N published messages
+     * @param count Number of messages
+     * @return Snapshot view, oldest first
+     */
+    @Override
+    public List<Message> recent(int count) {
+        int size = published.get();
+        return new HistoryView(this, Math.max(0, size - count), size);
+    }
+}
@@ -0,0 +1,299 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide registry of counters, gauges and latency histograms.
+ * Components create their metrics once, in static fields, and update them on
+ * the hot path with LongAdder increments and LatencyHistogram records, which
+ * never lock or allocate. {@link #start()} publishes every metric as a JMX
+ * MBean under chat:type=Metrics and writes a text snapshot to metrics.txt
+ * every chat.metrics.dumpSeconds seconds (default 60, 0 to disable).
+ */
+public class Metrics {
+    private static final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+    private static final String DUMP_FILE = "metrics.txt";
+    private static ScheduledExecutorService dumper;
+    private static MBeanServer mbeanServer;
+    
+    private Metrics() {
+    }
+    
+    /**
+     * Get or create a latency histogram
+     * @param name The metric name, for example "file.saveMessage"
+     * @return The histogram registered under the name
+     */
+    public static LatencyHistogram histogram(String name) {
+        return (LatencyHistogram) register(name, new LatencyHistogram(name));
+    }
+    
+    /**
+     * Get or create a counter
+     * @param name The metric name
+     * @return The counter registered under the name
+     */
+    public static LongAdder counter(String name) {
+        return (LongAdder) register(name, new LongAdder());
+    }
+    
+    /**
+     * Register a gauge, replacing any gauge of the same name.
+     * The supplier is called only when the metrics are read.
+     * @param name The metric name
+     * @param supplier Returns the current value
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        metrics.put(name, supplier);
+        publish(name, supplier);
+    }
+    
+    /**
+     * Remove a gauge, so it no longer keeps what its supplier reads alive.
+     * Nothing is removed if the name has since been given another supplier.
+     * @param name The metric name
+     * @param supplier The supplier it was registered with
+     */
+    public static void removeGauge(String name, LongSupplier supplier) {
+        if (metrics.remove(name, supplier)) {
+            unpublish(name);
+        }
+    }
+    
+    private static Object register(String name, Object metric) {
+        Object existing = metrics.putIfAbsent(name, metric);
+        if (existing == null) {
+            publish(name, metric);
+            return metric;
+        }
+        if (existing.getClass() != metric.getClass()) {
+            throw new IllegalArgumentException("Metric " + name + " is already a different type");
+        }
+        return existing;
+    }
+    
+    /**
+     * Register the metrics as MBeans and start the periodic dump; later calls do nothing.
+     * Metrics created afterwards are published as they are registered.
+     */
+    public static synchronized void start() {
+        if (mbeanServer != null) {
+            return;
+        }
+        mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            publish(entry.getKey(), entry.getValue());
+        }
+        
+        long period = Long.getLong("chat.metrics.dumpSeconds", 60);
+        if (period > 0) {
+            File file = new File(System.getProperty("chat.dir", "."), DUMP_FILE);
+            Map<String, Long> previous = new HashMap<>();
+            dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "chat-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(() -> dump(file, previous, period), period, period, TimeUnit.SECONDS);
+        }
+    }
+    
+    private static synchronized void publish(String name, Object metric) {
+        if (mbeanServer == null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName("chat:type=Metrics,name=" + ObjectName.quote(name));
+            if (mbeanServer.isRegistered(objectName)) {
+                mbeanServer.unregisterMBean(objectName);
+            }
+            mbeanServer.registerMBean(new MetricBean(metric), objectName);
+        } catch (JMException e) {
+            System.err.println("Could not register metric " + name + ": " + e.getMessage());
+        }
+    }
+    
+    private static synchronized void unpublish(String name) {
+        if (mbeanServer == null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName("chat:type=Metrics,name=" + ObjectName.quote(name));
+            if (mbeanServer.isRegistered(objectName)) {
+                mbeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not unregister metric " + name + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Format every metric, one per line, sorted by name
+     * @param previous Counter values from the last report, updated in place; used
+     *                 to print rates. Pass null to leave rates out.
+     * @param periodSeconds Seconds since the last report
+     * @return The report
+     */
+    static String report(Map<String, Long> previous, long periodSeconds) {
+        StringBuilder report = new StringBuilder();
+        report.append("# Chat metrics at ").append(LocalDateTime.now()).append(System.lineSeparator());
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            String name = entry.getKey();
+            Object metric = entry.getValue();
+            report.append(String.format("%-32s ", name));
+            if (metric instanceof LatencyHistogram) {
+                report.append(((LatencyHistogram) metric).summary());
+            } else if (metric instanceof LongAdder) {
+                long count = ((LongAdder) metric).sum();
+                report.append("count=").append(count);
+                if (previous != null) {
+                    Long last = previous.put(name, count);
+                    double rate = (count - (last != null ? last : 0)) / (double) periodSeconds;
+                    report.append(String.format(" rate=%.1f/s", rate));
+                }
+            } else {
+                report.append("value=").append(((LongSupplier) metric).getAsLong());
+            }
+            report.append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+    
+    /**
+     * Replace the dump file with a fresh report
+     */
+    private static void dump(File file, Map<String, Long> previous, long periodSeconds) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                out.write(report(previous, periodSeconds));
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // Keep the schedule alive; a failed dump must not stop later ones
+            System.err.println("Error writing metrics: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Read-only MBean over one metric. Histogram durations are in microseconds.
+     */
+    private static class MetricBean implements DynamicMBean {
+        private static final String[] HISTOGRAM_ATTRIBUTES = {
+            "Count", "MeanMicros", "P50Micros", "P90Micros", "P99Micros", "P999Micros", "MaxMicros"
+        };
+        
+        private final Object metric;
+        
+        MetricBean(Object metric) {
+            this.metric = metric;
+        }
+        
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (metric instanceof LongAdder && attribute.equals("Count")) {
+                return ((LongAdder) metric).sum();
+            }
+            if (metric instanceof LongSupplier && attribute.equals("Value")) {
+                return ((LongSupplier) metric).getAsLong();
+            }
+            if (metric instanceof LatencyHistogram) {
+                LatencyHistogram histogram = (LatencyHistogram) metric;
+                switch (attribute) {
+                    case "Count":
+                        return histogram.getCount();
+                    case "MeanMicros":
+                        return histogram.getMean() / 1e3;
+                    case "P50Micros":
+                        return histogram.getPercentile(50) / 1e3;
+                    case "P90Micros":
+                        return histogram.getPercentile(90) / 1e3;
+                    case "P99Micros":
+                        return histogram.getPercentile(99) / 1e3;
+                    case "P999Micros":
+                        return histogram.getPercentile(99.9) / 1e3;
+                    case "MaxMicros":
+                        return histogram.getMax() / 1e3;
+                    default:
+                        break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+        
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Unknown attributes are left out, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+        
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+        
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+        
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("Metrics have no operations");
+        }
+        
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] attributes;
+            if (metric instanceof LatencyHistogram) {
+                attributes = new MBeanAttributeInfo[HISTOGRAM_ATTRIBUTES.length];
+                for (int i = 0; i < attributes.length; i++) {
+                    String type = i == 0 ? "long" : "double";
+                    attributes[i] = new MBeanAttributeInfo(HISTOGRAM_ATTRIBUTES[i], type,
+                            HISTOGRAM_ATTRIBUTES[i], true, false, false);
+                }
+            } else if (metric instanceof LongAdder) {
+                attributes = new MBeanAttributeInfo[] {
+                    new MBeanAttributeInfo("Count", "long", "Count since start", true, false, false)
+                };
+            } else {
+                attributes = new MBeanAttributeInfo[] {
+                    new MBeanAttributeInfo("Value", "long", "Current value", true, false, false)
+                };
+            }
+            return new MBeanInfo(MetricBean.class.getName(), "Chat metric", attributes, null, null, null);
+        }
+    }
+}
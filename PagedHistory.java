@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * History that leaves its older messages in the MessageLog.
+ * The first base messages are read from the log a page at a time when asked for
+ * and kept in a small LRU page cache; the rest, including every append, live in
+ * an in-memory tail history. Opening a chat this way costs one page of reads
+ * however long the log is, and scrolling back only reads the pages in view.
+ */
+public class PagedHistory implements MessageHistory {
+    private static final int PAGE_SIZE = 256;
+    private static final int MAX_CACHED_PAGES = 64;
+    private static final String UNREADABLE_CONTENT = "[unreadable message]";
+    private static final LatencyHistogram pageLoadTime = Metrics.histogram("history.pageLoad");
+    private static final LongAdder unreadableRecords = Metrics.counter("history.unreadableRecords");
+    
+    private final MessageLog log;
+    private final long firstOrdinal;
+    private final int base;
+    private final MessageHistory tail;
+    private final Map<Integer, List<Message>> pages;
+    
+    /**
+     * Constructor for PagedHistory
+     * @param log The log holding the older messages
+     * @param firstOrdinal Log ordinal of message 0
+     * @param base Number of older messages read from the log
+     * @param tail The history that holds message base onwards
+     */
+    public PagedHistory(MessageLog log, long firstOrdinal, int base, MessageHistory tail) {
+        if (base < 0) {
+            throw new IllegalArgumentException("Base cannot be negative: " + base);
+        }
+        this.log = log;
+        this.firstOrdinal = firstOrdinal;
+        this.base = base;
+        this.tail = tail;
+        this.pages = new LinkedHashMap<Integer, List<Message>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Message>> eldest) {
+                return size() > MAX_CACHED_PAGES;
+            }
+        };
+    }
+    
+    /**
+     * Get the number of older messages that stay in the log
+     * @return Index of the first message held in memory
+     */
+    public int getBase() {
+        return base;
+    }
+    
+    @Override
+    public int append(Message message) {
+        return base + tail.append(message);
+    }
+    
+    @Override
+    public int size() {
+        return base + tail.size();
+    }
+    
+    /**
+     * Get a message by index, reading its page from the log if it is older than base
+     * @param index The message index
+     * @return The message
+     * @throws UncheckedIOException If the page cannot be read from the log
+     */
+    @Override
+    public Message get(int index) {
+        if (index >= base) {
+            return tail.get(index - base);
+        }
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return page(index / PAGE_SIZE).get(index % PAGE_SIZE);
+    }
+    
+    private List<Message> page(int page) {
+        synchronized (pages) {
+            List<Message> messages = pages.get(page);
+            if (messages != null) {
+                return messages;
+            }
+            long start = System.nanoTime();
+            int from = page * PAGE_SIZE;
+            int to = Math.min(base, from + PAGE_SIZE);
+            try {
+                messages = log.readWithGaps(firstOrdinal + from, firstOrdinal + to);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read messages " + from + " to " + to, e);
+            } finally {
+                pageLoadTime.recordSince(start);
+            }
+            fillGaps(messages, firstOrdinal + from, to - from);
+            pages.put(page, messages);
+            return messages;
+        }
+    }
+    
+    /**
+     * Put a placeholder in place of every record the log could not parse or no
+     * longer has, so each later message keeps its index. A placeholder takes the
+     * timestamp of the message before it, which keeps the list in time order.
+     * @param messages Result of {@link MessageLog#readWithGaps(long, long)}, filled in place
+     * @param fromOrdinal Ordinal of the first message
+     * @param expected Number of ordinals read
+     */
+    static void fillGaps(List<Message> messages, long fromOrdinal, int expected) {
+        while (messages.size() < expected) {
+            messages.add(null);
+        }
+        long time = 0;
+        for (Message message : messages) {
+            if (message != null) {
+                time = message.getTimestamp().getTime();
+                break;
+            }
+        }
+        int gaps = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (message == null) {
+                messages.set(i, new Message("", UNREADABLE_CONTENT, new Date(time)));
+                gaps++;
+            } else {
+                time = message.getTimestamp().getTime();
+            }
+        }
+        if (gaps > 0) {
+            unreadableRecords.add(gaps);
+            System.err.println("Message log has " + gaps + " unreadable record(s) between ordinals "
+                    + fromOrdinal + " and " + (fromOrdinal + expected));
+        }
+    }
+    
+    /**
+     * Find the first message sent after a time. Searches the tail first; only a
+     * time before the tail costs a binary search over log pages.
+     */
+    @Override
+    public int indexAfter(long time) {
+        if (base == 0 || get(base - 1).getTimestamp().getTime() <= time) {
+            return base + tail.indexAfter(time);
+        }
+        int low = 0;
+        int high = base - 1; // Known to be after time
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (get(mid).getTimestamp().getTime() > time) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+    
+    @Override
+    public ChatStatistics statistics(int from, int to, int excludedSenderId) {
+        if (from >= base) {
+            return tail.statistics(from - base, to - base, excludedSenderId);
+        }
+        return MessageHistory.super.statistics(from, to, excludedSenderId);
+    }
+}
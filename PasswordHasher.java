@@ -0,0 +1,134 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2 password hashing with the JDK's PBKDF2WithHmacSHA512.
+ * A stored credential looks like {@code pbkdf2-sha512$<iterations>$<salt>$<hash>}
+ * with Base64 salt and hash, so it never contains the '|' separator of users.txt.
+ * The iteration count for new hashes comes from the chat.pbkdf2.iterations
+ * property; credentials hashed with another count still verify and are flagged
+ * by {@link #needsRehash(String)}. Anything without the prefix is a legacy
+ * plaintext password. PasswordHashBenchmark in the benchmarks module measures
+ * the cost of a count before it is configured.
+ */
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2-sha512$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA512";
+    private static final int DEFAULT_ITERATIONS = 210000;
+    private static final int MIN_ITERATIONS = 10000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 512;
+    private static final SecureRandom random = new SecureRandom();
+    private static final int iterations = configuredIterations();
+    
+    private PasswordHasher() {
+    }
+    
+    private static int configuredIterations() {
+        int configured = Integer.getInteger("chat.pbkdf2.iterations", DEFAULT_ITERATIONS);
+        if (configured < MIN_ITERATIONS) {
+            System.err.println("chat.pbkdf2.iterations must be at least " + MIN_ITERATIONS
+                    + "; using " + DEFAULT_ITERATIONS);
+            return DEFAULT_ITERATIONS;
+        }
+        return configured;
+    }
+    
+    /**
+     * Get the iteration count used for new hashes
+     * @return Iteration count
+     */
+    public static int getIterations() {
+        return iterations;
+    }
+    
+    /**
+     * Hash a password with a new random salt
+     * @param password The password
+     * @return The credential to store
+     */
+    public static String hash(String password) {
+        return hash(password, iterations);
+    }
+    
+    /**
+     * Hash a password with a new random salt and a given iteration count
+     * @param password The password
+     * @param iterations PBKDF2 iteration count
+     * @return The credential to store
+     */
+    public static String hash(String password, int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be positive: " + iterations);
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(derive(password, salt, iterations));
+    }
+    
+    /**
+     * Check a password against a stored credential, hashed or legacy plaintext.
+     * Comparisons take the same time wherever the first difference is.
+     * @param password The password to check
+     * @param stored The stored credential
+     * @return true if the password matches
+     */
+    public static boolean verify(String password, String stored) {
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            int count = Integer.parseInt(parts[0]);
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] salt = decoder.decode(parts[1]);
+            byte[] expected = decoder.decode(parts[2]);
+            return count > 0 && MessageDigest.isEqual(derive(password, salt, count), expected);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Malformed password hash: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Check whether a stored credential is a PBKDF2 hash
+     * @param stored The stored credential
+     * @return false for a legacy plaintext password
+     */
+    public static boolean isHashed(String stored) {
+        return stored.startsWith(PREFIX);
+    }
+    
+    /**
+     * Check whether a stored credential should be replaced by a fresh hash,
+     * because it is plaintext or uses another iteration count
+     * @param stored The stored credential
+     * @return true if the credential should be rehashed after a successful login
+     */
+    public static boolean needsRehash(String stored) {
+        return !stored.startsWith(PREFIX + iterations + "$");
+    }
+    
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // Every Java 8+ runtime ships this algorithm
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+import java.io.IOException;
+
+/**
+ * Interface for hearing about background persistence results
+ */
+public interface PersistenceCallback {
+    /**
+     * Called on the writer thread after a batch has been written
+     * @param messageCount Number of messages in the batch
+     * @param mentionCount Number of mentions in the batch
+     */
+    void batchPersisted(int messageCount, int mentionCount);
+    
+    /**
+     * Called on the writer thread when a batch could not be written
+     * @param messageCount Number of messages that were lost
+     * @param mentionCount Number of mentions that were lost
+     * @param error The cause of the failure
+     */
+    void persistenceFailed(int messageCount, int mentionCount, IOException error);
+}
@@ -0,0 +1,233 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background persistence pipeline for messages and mentions.
+ * Callers enqueue into a bounded queue and return immediately; a single writer
+ * thread drains whatever is pending and writes it as one batch, followed by an
+ * optional fsync depending on the durability mode.
+ */
+public class PersistenceWriter implements Closeable {
+    /**
+     * How hard the writer works to get data onto the storage device
+     */
+    public enum Durability {
+        /** Flush to the operating system only, never fsync */
+        NONE,
+        /** One fsync per batch */
+        BATCH,
+        /** One fsync per message */
+        PER_MESSAGE
+    }
+    
+    private static final int DEFAULT_CAPACITY = 10000;
+    private static final int MAX_BATCH = 1024;
+    private static final LatencyHistogram batchTime = Metrics.histogram("persistence.batchWrite");
+    private static final LongAdder messagesWritten = Metrics.counter("persistence.messagesWritten");
+    private static final LongAdder mentionsWritten = Metrics.counter("persistence.mentionsWritten");
+    
+    private final MessageLog log;
+    private final MentionInbox mentionInbox;
+    private final Durability durability;
+    private final BlockingQueue<Entry> queue;
+    private final Thread writerThread;
+    private volatile PersistenceCallback callback;
+    private volatile boolean closed;
+    
+    /**
+     * Constructor for PersistenceWriter
+     * @param log The message log to append messages to
+     * @param mentionInbox The inbox to append mentions to
+     * @param durability The durability mode
+     */
+    public PersistenceWriter(MessageLog log, MentionInbox mentionInbox, Durability durability) {
+        this(log, mentionInbox, durability, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Constructor for PersistenceWriter
+     * @param log The message log to append messages to
+     * @param mentionInbox The inbox to append mentions to
+     * @param durability The durability mode
+     * @param capacity Maximum number of pending entries before callers block
+     */
+    public PersistenceWriter(MessageLog log, MentionInbox mentionInbox, Durability durability, int capacity) {
+        this.log = log;
+        this.mentionInbox = mentionInbox;
+        this.durability = durability;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writerThread = new Thread(this::runWriter, "chat-persistence");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+    
+    /**
+     * Set the callback notified after each batch
+     * @param callback The callback, or null to remove it
+     */
+    public void setCallback(PersistenceCallback callback) {
+        this.callback = callback;
+    }
+    
+    /**
+     * Queue a message for writing
+     * @param message The message to save
+     * @throws InterruptedException If interrupted while waiting for queue space
+     */
+    public void enqueueMessage(Message message) throws InterruptedException {
+        enqueue(new Entry(message, null, null));
+    }
+    
+    /**
+     * Queue a mention for writing
+     * @param username The mentioned username
+     * @param messageText The message containing the mention
+     * @throws InterruptedException If interrupted while waiting for queue space
+     */
+    public void enqueueMention(String username, String messageText) throws InterruptedException {
+        enqueue(new Entry(null, username, messageText));
+    }
+    
+    private void enqueue(Entry entry) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Persistence writer is closed");
+        }
+        queue.put(entry);
+    }
+    
+    /**
+     * Get the number of entries waiting to be written
+     * @return Queue depth
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+    
+    /**
+     * Writer loop: block for the first entry, then drain everything pending
+     */
+    private void runWriter() {
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - batch.size());
+            
+            boolean stop = false;
+            List<Entry> work = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                if (entry == Entry.SHUTDOWN) {
+                    stop = true;
+                } else {
+                    work.add(entry);
+                }
+            }
+            writeBatch(work);
+            batch.clear();
+            
+            if (stop && queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Write one batch: messages go to the log, mentions in one write per inbox
+     */
+    private void writeBatch(List<Entry> work) {
+        if (work.isEmpty()) {
+            return;
+        }
+        
+        int messageCount = 0;
+        int mentionCount = 0;
+        Map<String, List<String>> mentions = new LinkedHashMap<>();
+        for (Entry entry : work) {
+            if (entry.message != null) {
+                messageCount++;
+            } else {
+                mentionCount++;
+                mentions.computeIfAbsent(entry.username, k -> new ArrayList<>()).add(entry.messageText);
+            }
+        }
+        
+        long start = System.nanoTime();
+        try {
+            for (Entry entry : work) {
+                if (entry.message != null) {
+                    log.append(entry.message);
+                    if (durability == Durability.PER_MESSAGE) {
+                        log.sync();
+                    }
+                }
+            }
+            if (durability == Durability.BATCH) {
+                log.sync();
+            } else {
+                log.flush();
+            }
+            
+            if (mentionCount > 0) {
+                mentionInbox.appendAll(mentions, durability != Durability.NONE);
+            }
+            batchTime.recordSince(start);
+            messagesWritten.add(messageCount);
+            mentionsWritten.add(mentionCount);
+            
+            PersistenceCallback cb = callback;
+            if (cb != null) {
+                cb.batchPersisted(messageCount, mentionCount);
+            }
+        } catch (IOException e) {
+            PersistenceCallback cb = callback;
+            if (cb != null) {
+                cb.persistenceFailed(messageCount, mentionCount, e);
+            } else {
+                System.err.println("Error persisting messages: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Stop accepting entries, write everything still queued and stop the writer
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(Entry.SHUTDOWN);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * A queued message or mention
+     */
+    private static class Entry {
+        static final Entry SHUTDOWN = new Entry(null, null, null);
+        
+        final Message message;
+        final String username;
+        final String messageText;
+        
+        Entry(Message message, String username, String messageText) {
+            this.message = message;
+            this.username = username;
+            this.messageText = messageText;
+        }
+    }
+}
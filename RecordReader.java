@@ -0,0 +1,36 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequential reader over stored message records, in either the text or the
+ * binary log format. Records can be stepped over without building a Message.
+ */
+public interface RecordReader extends Closeable {
+    /**
+     * Advance to the next record, without decoding it into a Message
+     * @return false at end of input
+     * @throws IOException If the source cannot be read
+     */
+    boolean nextRecord() throws IOException;
+    
+    /**
+     * Decode the current record
+     * @return Message object, or null if the record is malformed
+     */
+    Message parseRecord();
+    
+    /**
+     * Read the next well-formed message, skipping malformed records
+     * @return Message object, or null at end of input
+     * @throws IOException If the source cannot be read
+     */
+    default Message next() throws IOException {
+        while (nextRecord()) {
+            Message msg = parseRecord();
+            if (msg != null) {
+                return msg;
+            }
+        }
+        return null;
+    }
+}
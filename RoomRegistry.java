@@ -0,0 +1,390 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of open chat rooms.
+ * Each room gets its own partition directory (message log, search index and checkpoint)
+ * and is written by one of a fixed set of single-thread executor shards, chosen
+ * by hashing the room name. A room therefore always writes from the same
+ * thread in order, while rooms on different shards write in parallel. Shard
+ * queues are bounded; when one is full the posting thread writes the batch itself.
+ * <p>
+ * Rooms page their history: only the last chat.history.pageSize messages
+ * (default 200) are loaded when a room opens, older ones are read from its log
+ * on demand. A page size of 0 loads the whole history. When the room has a
+ * checkpoint that matches its log, the page starts no earlier than the end of
+ * the checkpoint, so every message after it is counted as the room loads and
+ * nothing it covers is read again. Open rooms are checkpointed on a timer.
+ * <p>
+ * Retention (by age and size, with per-room overrides) drops the oldest segments
+ * of a room's log. It is applied as a room opens, before its chat numbers the
+ * messages, and to the open rooms by {@link #applyRetention(ChatRoom)}.
+ */
+public class RoomRegistry implements Closeable {
+    private static final String LOG_DIR = "chat_history";
+    private static final String INDEX_FILE = "chat_history.idx";
+    private static final String CHECKPOINT_FILE = "chat_history.ckpt";
+    private static final int MAX_NAME_LENGTH = 64;
+    private static final int SHARD_QUEUE_CAPACITY = 1024;
+    private static final int ROOM_QUEUE_CAPACITY = 10000;
+    private static final int DEFAULT_PAGE_SIZE = 200;
+    private static final LongAdder messagesExpired = Metrics.counter("rooms.messagesExpired");
+    
+    private final File roomsDirectory;
+    private final PersistenceWriter.Durability durability;
+    private final ThreadPoolExecutor[] shards;
+    private final ScheduledExecutorService checkpointer;
+    private final Map<String, ChatRoom> rooms;
+    private final Map<String, Partition> attached;
+    private final Map<String, Retention> retentionByRoom;
+    private volatile Retention defaultRetention;
+    private volatile PersistenceCallback callback;
+    
+    /**
+     * Constructor for RoomRegistry
+     * @param roomsDirectory Directory holding one partition directory per room
+     * @param shardCount Number of writer shards
+     * @param durability The durability mode for room writes
+     * @param checkpointSeconds Seconds between checkpoints of the open rooms; 0 checkpoints only on close
+     */
+    public RoomRegistry(File roomsDirectory, int shardCount, PersistenceWriter.Durability durability,
+                        long checkpointSeconds) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1: " + shardCount);
+        }
+        this.roomsDirectory = roomsDirectory;
+        this.durability = durability;
+        this.shards = new ThreadPoolExecutor[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String threadName = "chat-room-shard-" + i;
+            shards[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(SHARD_QUEUE_CAPACITY), r -> {
+                        Thread thread = new Thread(r, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        this.rooms = new ConcurrentHashMap<>();
+        this.attached = new ConcurrentHashMap<>();
+        this.retentionByRoom = new ConcurrentHashMap<>();
+        this.defaultRetention = new Retention(0, 0);
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-room-checkpoint");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (checkpointSeconds > 0) {
+            checkpointer.scheduleWithFixedDelay(this::checkpointAll, checkpointSeconds, checkpointSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+    
+    /**
+     * Give a room existing storage instead of a partition under the rooms directory.
+     * Used to keep the original single-room history as one of the rooms.
+     * The registry never closes an attached log.
+     * @param name The room name
+     * @param log The room's message log
+     * @param indexFile Where the room's search index is saved
+     * @param checkpointFile Where the room's checkpoint is saved
+     */
+    public void attach(String name, MessageLog log, File indexFile, File checkpointFile) {
+        attached.put(checkName(name), new Partition(log, false, indexFile, checkpointFile));
+    }
+    
+    /**
+     * Set the retention for rooms without their own. Applied when a room is opened
+     * and by {@link #applyRetention(ChatRoom)}.
+     * @param maxAgeMillis Drop messages older than this; 0 keeps them whatever their age
+     * @param maxBytes Drop the oldest messages while a room's log is larger than this; 0 for no limit
+     */
+    public void setRetention(long maxAgeMillis, long maxBytes) {
+        defaultRetention = new Retention(maxAgeMillis, maxBytes);
+    }
+    
+    /**
+     * Set the retention for one room. Applied when the room is next opened
+     * and by {@link #applyRetention(ChatRoom)}.
+     * @param name The room name
+     * @param maxAgeMillis Drop messages older than this; 0 keeps them whatever their age
+     * @param maxBytes Drop the oldest messages while the room's log is larger than this; 0 for no limit
+     */
+    public void setRetention(String name, long maxAgeMillis, long maxBytes) {
+        retentionByRoom.put(checkName(name), new Retention(maxAgeMillis, maxBytes));
+    }
+    
+    /**
+     * Get a room, opening it and its partition on first use.
+     * The room's history is not loaded until {@link ChatRoom#load()} is called.
+     * @param name The room name
+     * @return The room
+     * @throws IOException If the room's message log cannot be opened
+     */
+    public ChatRoom getRoom(String name) throws IOException {
+        ChatRoom room = rooms.get(checkName(name));
+        if (room != null) {
+            return room;
+        }
+        synchronized (this) {
+            room = rooms.get(name);
+            if (room == null) {
+                Partition partition = attached.get(name);
+                if (partition == null) {
+                    File directory = roomDirectory(name);
+                    MessageLog log = new MessageLog(new File(directory, LOG_DIR));
+                    log.setMemoryMapped(Boolean.parseBoolean(System.getProperty("chat.mmap", "true")));
+                    partition = new Partition(log, true, new File(directory, INDEX_FILE),
+                            new File(directory, CHECKPOINT_FILE));
+                }
+                applyRetention(name, partition);
+                MessageHistory history = newHistory(partition.log, partition.checkpointFile);
+                room = new ChatRoom(name, new GroupChat(name, history), partition.log, partition.ownsLog,
+                        partition.indexFile, partition.checkpointFile, shards[shardOf(name)], durability,
+                        ROOM_QUEUE_CAPACITY);
+                room.setCallback(callback);
+                rooms.put(name, room);
+            }
+            return room;
+        }
+    }
+    
+    /**
+     * Close a room: write its pending messages, save its index and drop it from the registry
+     * @param name The room name
+     */
+    public void closeRoom(String name) {
+        ChatRoom room;
+        synchronized (this) {
+            room = rooms.remove(name);
+        }
+        if (room != null) {
+            room.close();
+        }
+    }
+    
+    /**
+     * Get the open rooms
+     * @return Read-only snapshot of the open rooms
+     */
+    public Collection<ChatRoom> getRooms() {
+        return Collections.unmodifiableList(new ArrayList<>(rooms.values()));
+    }
+    
+    /**
+     * Apply retention to an open room
+     * @param room The room, from {@link #getRooms()}
+     * @return Number of messages dropped
+     * @throws IOException If a segment file cannot be deleted
+     */
+    public long applyRetention(ChatRoom room) throws IOException {
+        Retention retention = retentionByRoom.getOrDefault(room.getName(), defaultRetention);
+        if (!retention.isLimited()) {
+            return 0;
+        }
+        long dropped = room.expire(retention.cutoffTime(), retention.sizeLimit());
+        messagesExpired.add(dropped);
+        return dropped;
+    }
+    
+    /**
+     * Get the number of messages waiting to be written, across all rooms
+     * @return Total queue depth
+     */
+    public long getPendingCount() {
+        long pending = 0;
+        for (ChatRoom room : rooms.values()) {
+            pending += room.getPendingCount();
+        }
+        return pending;
+    }
+    
+    /**
+     * Set the callback notified after each batch, for every room
+     * @param callback The callback, or null to remove it
+     */
+    public void setCallback(PersistenceCallback callback) {
+        this.callback = callback;
+        for (ChatRoom room : rooms.values()) {
+            room.setCallback(callback);
+        }
+    }
+    
+    /**
+     * Checkpoint every open room, logging rather than throwing failures
+     */
+    public void checkpointAll() {
+        for (ChatRoom room : rooms.values()) {
+            try {
+                room.checkpoint();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error saving checkpoint for room " + room.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Pick the shard for a room name
+     * @param name The room name
+     * @return Shard index
+     */
+    int shardOf(String name) {
+        int hash = name.hashCode();
+        // Mix the high bits in, as HashMap does, so similar names spread out
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+    
+    /**
+     * Close every room, then stop the shards
+     */
+    @Override
+    public synchronized void close() {
+        checkpointer.shutdown();
+        for (String name : new ArrayList<>(rooms.keySet())) {
+            closeRoom(name);
+        }
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+    }
+    
+    /**
+     * Drop the oldest segments of a room's log that fall outside its retention.
+     * Only whole segments go, so a room may keep somewhat more than its limits.
+     * The saved search index and checkpoint number messages from the old first
+     * message, so when anything is dropped they are deleted and rebuilt.
+     */
+    private void applyRetention(String name, Partition partition) throws IOException {
+        Retention retention = retentionByRoom.getOrDefault(name, defaultRetention);
+        if (!retention.isLimited()) {
+            return;
+        }
+        long dropped = partition.log.dropOldest(retention.cutoffTime(), retention.sizeLimit());
+        if (dropped > 0) {
+            partition.indexFile.delete();
+            partition.checkpointFile.delete();
+            messagesExpired.add(dropped);
+        }
+    }
+    
+    /**
+     * Create the history for a new room: everything but the last page, and at
+     * least what the checkpoint covers, stays in the log.
+     * -Dchat.history=columnar keeps the rest in primitive columns instead of objects.
+     */
+    private static MessageHistory newHistory(MessageLog log, File checkpointFile) {
+        MessageHistory history = "columnar".equals(System.getProperty("chat.history"))
+                ? new ColumnarHistory() : new MessageStore();
+        int pageSize = Integer.getInteger("chat.history.pageSize", DEFAULT_PAGE_SIZE);
+        if (pageSize <= 0) {
+            return history;
+        }
+        long earlier = Math.max(log.size() - pageSize, ChatCheckpoint.coveredCount(checkpointFile, log));
+        if (earlier <= 0) {
+            return history;
+        }
+        if (earlier > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Message log is too large to page: " + log.size());
+        }
+        return new PagedHistory(log, log.getFirstOrdinal(), (int) earlier, history);
+    }
+    
+    private static String checkName(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Room name cannot be empty");
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Room name is longer than " + MAX_NAME_LENGTH + " characters");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isISOControl(name.charAt(i))) {
+                throw new IllegalArgumentException("Room name cannot contain control characters");
+            }
+        }
+        return name;
+    }
+    
+    /**
+     * Get a room's directory, moving it from its old URL-encoded name if the
+     * room was created before names were encoded case-insensitively
+     */
+    private File roomDirectory(String name) throws IOException {
+        File directory = new File(roomsDirectory, FileNames.encode(name));
+        String legacyName = URLEncoder.encode(name, StandardCharsets.UTF_8).replace(".", "%2E");
+        String[] existing = roomsDirectory.list();
+        // Compare exact names: on a case-insensitive file system "Ops" would also find "ops"
+        if (!directory.exists() && !legacyName.equals(directory.getName())
+                && existing != null && Arrays.asList(existing).contains(legacyName)
+                && !new File(roomsDirectory, legacyName).renameTo(directory)) {
+            throw new IOException("Cannot move room directory " + legacyName + " to " + directory);
+        }
+        return directory;
+    }
+
+    
+    /**
+     * How much of a room's history to keep
+     */
+    private static class Retention {
+        final long maxAgeMillis;
+        final long maxBytes;
+        
+        Retention(long maxAgeMillis, long maxBytes) {
+            if (maxAgeMillis < 0 || maxBytes < 0) {
+                throw new IllegalArgumentException("Retention limits cannot be negative");
+            }
+            this.maxAgeMillis = maxAgeMillis;
+            this.maxBytes = maxBytes;
+        }
+        
+        boolean isLimited() {
+            return maxAgeMillis > 0 || maxBytes > 0;
+        }
+        
+        /**
+         * @return Time before which messages are dropped, or Long.MIN_VALUE for no age limit
+         */
+        long cutoffTime() {
+            return maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        }
+        
+        /**
+         * @return Size above which the oldest messages are dropped, or Long.MAX_VALUE for no limit
+         */
+        long sizeLimit() {
+            return maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        }
+    }
+    
+    /**
+     * Where a room keeps its messages and index
+     */
+    private static class Partition {
+        final MessageLog log;
+        final boolean ownsLog;
+        final File indexFile;
+        final File checkpointFile;
+        
+        Partition(MessageLog log, boolean ownsLog, File indexFile, File checkpointFile) {
+            this.log = log;
+            this.ownsLog = ownsLog;
+            this.indexFile = indexFile;
+            this.checkpointFile = checkpointFile;
+        }
+    }
+}
@@ -0,0 +1,535 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Incremental inverted index over message content and senders.
+ * Content is split into lower-case runs of letters and digits; each term maps to
+ * a posting list of message ids, stored as varint deltas in blocks of 128 with the
+ * first id of every block kept aside. The block heads let a query binary-search
+ * to a message id range and walk a list newest-first without decoding all of it.
+ * Terms live in a sorted map, so a prefix query is a range of the map.
+ * <p>
+ * Queries are lock-free and see every message indexed before they started;
+ * indexing is serialized. Message ids are GroupChat message ids, so a saved index
+ * is valid only for the history it was built from (see {@link #matches(int, Message)}).
+ */
+public class SearchIndex {
+    private static final int MAGIC = 0x43485349; // "CHSI"
+    private static final int VERSION = 1;
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final LatencyHistogram queryTime = Metrics.histogram("search.query");
+    
+    private final ConcurrentSkipListMap<String, PostingList> terms;
+    private final Map<Integer, PostingList> senders;
+    private final StringBuilder token;
+    private volatile int messageCount;
+    private volatile long lastTimestamp;
+    
+    /**
+     * Constructor for SearchIndex
+     */
+    public SearchIndex() {
+        this.terms = new ConcurrentSkipListMap<>();
+        this.senders = new ConcurrentHashMap<>();
+        this.token = new StringBuilder(MAX_TERM_LENGTH);
+    }
+    
+    /**
+     * Index a message
+     * @param messageId The message id (its index in the group chat)
+     * @param message The message
+     */
+    public synchronized void add(int messageId, Message message) {
+        if (messageId < 0) {
+            throw new IllegalArgumentException("Message id cannot be negative: " + messageId);
+        }
+        String content = message.getContent();
+        int length = content.length();
+        token.setLength(0);
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? content.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (token.length() < MAX_TERM_LENGTH) {
+                    token.append(Character.toLowerCase(c));
+                }
+            } else if (token.length() > 0) {
+                terms.computeIfAbsent(token.toString(), k -> new PostingList()).add(messageId);
+                token.setLength(0);
+            }
+        }
+        senders.computeIfAbsent(message.getSenderId(), k -> new PostingList()).add(messageId);
+        
+        if (messageId >= messageCount) {
+            lastTimestamp = message.getTimestamp().getTime();
+            messageCount = messageId + 1;
+        }
+    }
+    
+    /**
+     * Get the number of message ids covered, one past the highest indexed id
+     * @return Message count
+     */
+    public int getMessageCount() {
+        return messageCount;
+    }
+    
+    /**
+     * Get the number of distinct terms
+     * @return Term count
+     */
+    public int getTermCount() {
+        return terms.size();
+    }
+    
+    /**
+     * Check that the index was built from a history: it covers no more messages
+     * than the history holds, and its newest message has the same timestamp
+     * @param historySize The number of messages in the history
+     * @param newestIndexed The history's message at index getMessageCount() - 1,
+     *                      or null if the index is empty or longer than the history
+     * @return true if the index can be used for the history
+     */
+    public boolean matches(int historySize, Message newestIndexed) {
+        int count = messageCount;
+        if (count == 0) {
+            return true;
+        }
+        return count <= historySize && newestIndexed != null
+                && newestIndexed.getTimestamp().getTime() == lastTimestamp;
+    }
+    
+    /**
+     * Find messages matching a query, newest first.
+     * Every word of the query must occur in the message; a word ending in '*'
+     * matches any term that starts with it. Case and punctuation are ignored.
+     * @param query The query, for example "deploy* friday"
+     * @param senderId SymbolTable id of the sender to match, or -1 for any sender
+     * @param fromId Smallest message id to return (inclusive)
+     * @param toId Largest message id to return (exclusive)
+     * @param limit Maximum number of ids to return
+     * @return Matching message ids, descending
+     */
+    public List<Integer> search(String query, int senderId, int fromId, int toId, int limit) {
+        long start = System.nanoTime();
+        try {
+            List<List<PostingList>> clauses = parse(query);
+            if (clauses == null) {
+                return Collections.emptyList();
+            }
+            if (senderId >= 0) {
+                PostingList sender = senders.get(senderId);
+                if (sender == null) {
+                    return Collections.emptyList();
+                }
+                clauses.add(Collections.singletonList(sender));
+            }
+            if (clauses.isEmpty() || limit <= 0) {
+                return Collections.emptyList();
+            }
+            return intersect(clauses, Math.max(0, fromId), Math.min(toId, messageCount), limit);
+        } finally {
+            queryTime.recordSince(start);
+        }
+    }
+    
+    /**
+     * Turn a query into one clause per word: the posting lists any of which
+     * may match it. Returns null if a word matches nothing.
+     */
+    private List<List<PostingList>> parse(String query) {
+        List<List<PostingList>> clauses = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        int length = query.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (word.length() < MAX_TERM_LENGTH) {
+                    word.append(Character.toLowerCase(c));
+                }
+                continue;
+            }
+            if (word.length() == 0) {
+                continue;
+            }
+            String term = word.toString();
+            word.setLength(0);
+            List<PostingList> clause;
+            if (c == '*') {
+                Collection<PostingList> matches = terms.subMap(term, true, term + Character.MAX_VALUE, false).values();
+                clause = new ArrayList<>(matches);
+            } else {
+                PostingList list = terms.get(term);
+                clause = list == null ? Collections.emptyList() : Collections.singletonList(list);
+            }
+            if (clause.isEmpty()) {
+                return null;
+            }
+            clauses.add(clause);
+        }
+        return clauses;
+    }
+    
+    /**
+     * Leapfrog over the clauses newest-first: each clause jumps to its newest id at
+     * or below the current candidate, and a smaller answer becomes the new candidate.
+     * The rarest clause leads, so common terms are mostly skipped block by block.
+     */
+    private static List<Integer> intersect(List<List<PostingList>> lists, int fromId, int toId, int limit) {
+        Clause[] clauses = new Clause[lists.size()];
+        for (int i = 0; i < clauses.length; i++) {
+            clauses[i] = new Clause(lists.get(i));
+        }
+        Arrays.sort(clauses, (a, b) -> Long.compare(a.size, b.size));
+        
+        List<Integer> results = new ArrayList<>(Math.min(limit, 64));
+        int target = toId - 1;
+        while (target >= fromId && results.size() < limit) {
+            int candidate = clauses[0].skipTo(target);
+            if (candidate < fromId) {
+                break;
+            }
+            target = candidate;
+            for (int i = 1; i < clauses.length && target == candidate; i++) {
+                target = clauses[i].skipTo(candidate);
+            }
+            if (target == candidate) {
+                results.add(candidate);
+                target = candidate - 1;
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Write the index to a file, replacing it atomically
+     * @param file The index file
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(messageCount);
+            out.writeLong(lastTimestamp);
+            out.writeInt(terms.size());
+            for (Map.Entry<String, PostingList> entry : terms.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+            out.writeInt(senders.size());
+            for (Map.Entry<Integer, PostingList> entry : senders.entrySet()) {
+                // Names, not ids: SymbolTable ids differ between runs
+                out.writeUTF(SymbolTable.name(entry.getKey()));
+                entry.getValue().write(out);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+    
+    /**
+     * Read an index written by {@link #save(File)}
+     * @param file The index file
+     * @return The index
+     * @throws IOException If the file cannot be read or is not a valid index
+     */
+    public static SearchIndex load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a search index: " + file);
+            }
+            SearchIndex index = new SearchIndex();
+            index.messageCount = in.readInt();
+            index.lastTimestamp = in.readLong();
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                index.terms.put(in.readUTF(), PostingList.read(in));
+            }
+            int senderCount = in.readInt();
+            for (int i = 0; i < senderCount; i++) {
+                index.senders.put(SymbolTable.intern(in.readUTF()), PostingList.read(in));
+            }
+            return index;
+        } catch (EOFException | RuntimeException e) {
+            throw new IOException("Corrupt search index " + file + ": " + e, e);
+        }
+    }
+    
+    /**
+     * Ascending message ids as varint deltas in blocks of BLOCK ids.
+     * The first id of each block is kept in blockFirst and not encoded; the rest
+     * are deltas starting at blockOffset. Appends are made under the index lock.
+     * Readers take count first: the arrays behind it are at least as new, and
+     * every id below count stays valid in them.
+     */
+    private static class PostingList {
+        private static final int BLOCK = 128;
+        
+        // Readers take this once and never see arrays and a count from different writes
+        private volatile Blocks blocks = new Blocks(new byte[8], new int[1], new int[1], 0);
+        private int length;
+        private int lastId = -1;
+        
+        void add(int id) {
+            if (id == lastId) {
+                return;
+            }
+            if (id < lastId) {
+                insert(id);
+                return;
+            }
+            append(id);
+        }
+        
+        /**
+         * Append an id larger than every id in the list. Only array slots past the
+         * published count are written, so readers of the previous snapshot, which
+         * may share the arrays, are unaffected.
+         */
+        private void append(int id) {
+            Blocks current = blocks;
+            int n = current.count;
+            byte[] data = current.data;
+            int[] first = current.first;
+            int[] offset = current.offset;
+            if (n % BLOCK == 0) {
+                int block = n / BLOCK;
+                if (block == first.length) {
+                    first = Arrays.copyOf(first, block * 2);
+                    offset = Arrays.copyOf(offset, block * 2);
+                }
+                first[block] = id;
+                offset[block] = length;
+            } else {
+                if (length + 5 > data.length) {
+                    data = Arrays.copyOf(data, Math.max(16, data.length * 2));
+                }
+                length = MessageCodec.putVarLong(data, length, id - lastId);
+            }
+            blocks = new Blocks(data, first, offset, n + 1);
+            lastId = id;
+        }
+        
+        /**
+         * Add an id that arrived after a larger one by re-encoding the list.
+         * Only happens when messages are added from several threads at once.
+         */
+        private void insert(int id) {
+            int[] ids = toArray();
+            int position = Arrays.binarySearch(ids, id);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+            PostingList rebuilt = new PostingList();
+            for (int i = 0; i < ids.length; i++) {
+                if (i == position) {
+                    rebuilt.append(id);
+                }
+                rebuilt.append(ids[i]);
+            }
+            length = rebuilt.length;
+            lastId = rebuilt.lastId;
+            blocks = rebuilt.blocks;
+        }
+        
+        private int[] toArray() {
+            Blocks current = blocks;
+            int n = current.count;
+            int[] ids = new int[n];
+            for (int block = 0; block * BLOCK < n; block++) {
+                decode(current, block, n, ids, block * BLOCK);
+            }
+            return ids;
+        }
+        
+        /**
+         * Decode one block into out starting at index at
+         * @return Number of ids decoded
+         */
+        private static int decode(Blocks blocks, int block, int count, int[] out, int at) {
+            int n = Math.min(BLOCK, count - block * BLOCK);
+            byte[] data = blocks.data;
+            int position = blocks.offset[block];
+            int id = blocks.first[block];
+            out[at] = id;
+            for (int i = 1; i < n; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += delta;
+                out[at + i] = id;
+            }
+            return n;
+        }
+        
+        /**
+         * Find the last block whose first id is at most id
+         * @return Block index, or -1 if id is before the first block
+         */
+        private static int blockOf(Blocks blocks, int count, int id) {
+            int lo = 0;
+            int hi = (count + BLOCK - 1) / BLOCK - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (blocks.first[mid] <= id) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+        
+        void write(DataOutputStream out) throws IOException {
+            Blocks current = blocks;
+            int blockCount = (current.count + BLOCK - 1) / BLOCK;
+            out.writeInt(current.count);
+            out.writeInt(lastId);
+            out.writeInt(length);
+            out.write(current.data, 0, length);
+            for (int i = 0; i < blockCount; i++) {
+                out.writeInt(current.first[i]);
+                out.writeInt(current.offset[i]);
+            }
+        }
+        
+        static PostingList read(DataInputStream in) throws IOException {
+            PostingList list = new PostingList();
+            int n = in.readInt();
+            int lastId = in.readInt();
+            int length = in.readInt();
+            if (n < 0 || length < 0) {
+                throw new IOException("Bad posting list header");
+            }
+            byte[] data = new byte[Math.max(8, length)];
+            in.readFully(data, 0, length);
+            int blockCount = (n + BLOCK - 1) / BLOCK;
+            int[] first = new int[Math.max(1, blockCount)];
+            int[] offset = new int[Math.max(1, blockCount)];
+            for (int i = 0; i < blockCount; i++) {
+                first[i] = in.readInt();
+                offset[i] = in.readInt();
+                if (offset[i] < 0 || offset[i] > length) {
+                    throw new IOException("Bad posting list block offset");
+                }
+            }
+            list.blocks = new Blocks(data, first, offset, n);
+            list.length = length;
+            list.lastId = lastId;
+            return list;
+        }
+    }
+    
+    /**
+     * Snapshot of a posting list: its arrays and how many ids they hold, published
+     * together on every add. The arrays may be shared with later snapshots, which
+     * only write past this snapshot's count.
+     */
+    private static class Blocks {
+        final byte[] data;
+        final int[] first;
+        final int[] offset;
+        final int count;
+        
+        Blocks(byte[] data, int[] first, int[] offset, int count) {
+            this.data = data;
+            this.first = first;
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+    
+    /**
+     * Any of a clause's posting lists; a prefix clause has one list per matching term
+     */
+    private static class Clause {
+        private final Cursor[] cursors;
+        private final long size;
+        
+        Clause(List<PostingList> lists) {
+            cursors = new Cursor[lists.size()];
+            long total = 0;
+            for (int i = 0; i < cursors.length; i++) {
+                cursors[i] = new Cursor(lists.get(i));
+                total += cursors[i].count;
+            }
+            size = total;
+        }
+        
+        /**
+         * Get the newest id at or below target in any of the lists
+         * @return The id, or -1 if there is none
+         */
+        int skipTo(int target) {
+            int best = -1;
+            for (Cursor cursor : cursors) {
+                best = Math.max(best, cursor.skipTo(target));
+            }
+            return best;
+        }
+    }
+    
+    /**
+     * Walks one posting list newest-first, jumping between blocks by their first ids.
+     * Targets passed to skipTo must not increase.
+     */
+    private static class Cursor {
+        private final Blocks blocks;
+        private final int count;
+        private final int[] buffer;
+        private int block;
+        private int position;
+        private int id;
+        
+        Cursor(PostingList list) {
+            this.blocks = list.blocks;
+            this.count = blocks.count;
+            this.buffer = new int[PostingList.BLOCK];
+            this.block = -1;
+            this.id = Integer.MAX_VALUE;
+        }
+        
+        /**
+         * Move to the newest id at or below target
+         * @return The id, or -1 if there is none
+         */
+        int skipTo(int target) {
+            if (id <= target) {
+                return id;
+            }
+            if (block < 0 || target < blocks.first[block]) {
+                block = PostingList.blockOf(blocks, count, target);
+                if (block < 0) {
+                    id = -1;
+                    return id;
+                }
+                position = PostingList.decode(blocks, block, count, buffer, 0);
+            }
+            // The block's first id is at most target, so this lands inside the block
+            int index = Arrays.binarySearch(buffer, 0, position, target);
+            position = index >= 0 ? index : -index - 2;
+            id = buffer[position];
+            return id;
+        }
+    }
+}
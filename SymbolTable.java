@@ -0,0 +1,71 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide table mapping usernames to small int ids.
+ * Messages, users and the group chat hold ids; names are resolved only at the
+ * UI and file boundary, so each username exists once on the heap however many
+ * messages refer to it. Ids are never reused or removed.
+ */
+public class SymbolTable {
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[256];
+    private static int count;
+    
+    private SymbolTable() {
+    }
+    
+    /**
+     * Get the id of a name, assigning the next id if it is new
+     * @param name The name
+     * @return The name's id
+     */
+    public static int intern(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : add(name);
+    }
+    
+    private static synchronized int add(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        String[] table = names;
+        if (count == table.length) {
+            table = Arrays.copyOf(table, count * 2);
+        }
+        table[count] = name;
+        // The volatile write publishes the new slot before the id is handed out
+        names = table;
+        ids.put(name, count);
+        return count++;
+    }
+    
+    /**
+     * Get the id of a name without assigning one
+     * @param name The name
+     * @return The name's id, or -1 if it has never been interned
+     */
+    public static int lookup(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+    
+    /**
+     * Resolve an id to its name
+     * @param id An id returned by intern
+     * @return The name
+     */
+    public static String name(int id) {
+        return names[id];
+    }
+    
+    /**
+     * Get the number of names in the table
+     * @return Name count
+     */
+    public static synchronized int size() {
+        return count;
+    }
+}
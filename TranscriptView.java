@@ -0,0 +1,184 @@
+import java.awt.*;
+import java.awt.event.*;
+import java.util.List;
+
+/**
+ * Chat transcript that draws only the messages in view.
+ * Messages are read straight from the GroupChat store, one row each, so the
+ * component holds no copy of the text and adding a message costs the same
+ * however long the history is. Scrolling just changes which rows are drawn.
+ */
+public class TranscriptView extends Panel {
+    private static final int PADDING = 4;
+    private static final int WHEEL_ROWS = 3;
+    private static final LatencyHistogram paintTime = Metrics.histogram("ui.transcriptPaint");
+    
+    private final GroupChat groupChat;
+    private final Rows rows;
+    private final Scrollbar verticalBar;
+    private final Scrollbar horizontalBar;
+    private int messageCount;
+    private int widestRow;
+    
+    /**
+     * Constructor for TranscriptView
+     * @param groupChat The chat whose messages are shown
+     */
+    public TranscriptView(GroupChat groupChat) {
+        this.groupChat = groupChat;
+        this.rows = new Rows();
+        this.verticalBar = new Scrollbar(Scrollbar.VERTICAL);
+        this.horizontalBar = new Scrollbar(Scrollbar.HORIZONTAL);
+        
+        setLayout(new BorderLayout(0, 0));
+        add(rows, BorderLayout.CENTER);
+        add(verticalBar, BorderLayout.EAST);
+        add(horizontalBar, BorderLayout.SOUTH);
+        
+        verticalBar.addAdjustmentListener(e -> rows.repaint());
+        horizontalBar.addAdjustmentListener(e -> rows.repaint());
+        rows.addMouseWheelListener(e -> scrollTo(verticalBar.getValue() + e.getWheelRotation() * WHEEL_ROWS));
+        rows.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                boolean atBottom = isAtBottom();
+                updateScrollbars();
+                if (atBottom) {
+                    scrollToBottom();
+                }
+            }
+        });
+    }
+    
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        rows.setFont(font);
+    }
+    
+    @Override
+    public void setBackground(Color color) {
+        super.setBackground(color);
+        rows.setBackground(color);
+    }
+    
+    /**
+     * Pick up messages added to the chat since the last call.
+     * Keeps the view pinned to the newest message if it was already there.
+     */
+    public void messagesAdded() {
+        boolean atBottom = isAtBottom();
+        messageCount = groupChat.getMessageCount();
+        updateScrollbars();
+        if (atBottom) {
+            scrollToBottom();
+        }
+        rows.repaint();
+    }
+    
+    /**
+     * Scroll so the newest message is visible
+     */
+    public void scrollToBottom() {
+        scrollTo(messageCount);
+    }
+    
+    private void scrollTo(int firstRow) {
+        int max = Math.max(0, messageCount - visibleRows());
+        verticalBar.setValue(Math.max(0, Math.min(firstRow, max)));
+        rows.repaint();
+    }
+    
+    private boolean isAtBottom() {
+        return verticalBar.getValue() + visibleRows() >= messageCount;
+    }
+    
+    private int visibleRows() {
+        int rowHeight = rowHeight();
+        return Math.max(1, (rows.getHeight() - PADDING * 2) / rowHeight);
+    }
+    
+    private int rowHeight() {
+        Font font = rows.getFont();
+        return font == null ? 16 : rows.getFontMetrics(font).getHeight();
+    }
+    
+    private void updateScrollbars() {
+        int visible = Math.min(visibleRows(), messageCount);
+        verticalBar.setValues(verticalBar.getValue(), visible, 0, Math.max(messageCount, 1));
+        verticalBar.setBlockIncrement(Math.max(1, visible - 1));
+        
+        int width = Math.max(1, rows.getWidth() - PADDING * 2);
+        horizontalBar.setValues(horizontalBar.getValue(), Math.min(width, widestRow + 1), 0,
+                Math.max(widestRow + 1, width));
+        horizontalBar.setBlockIncrement(Math.max(1, width / 2));
+        horizontalBar.setUnitIncrement(16);
+    }
+    
+    /**
+     * Canvas that paints the visible rows into an off-screen image
+     */
+    private class Rows extends Canvas {
+        private Image buffer;
+        
+        @Override
+        public void update(Graphics g) {
+            // Skip the default clear; paint covers every pixel
+            paint(g);
+        }
+        
+        @Override
+        public void paint(Graphics g) {
+            long start = System.nanoTime();
+            try {
+                paintRows(g);
+            } finally {
+                paintTime.recordSince(start);
+            }
+        }
+        
+        private void paintRows(Graphics g) {
+            int width = getWidth();
+            int height = getHeight();
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+            if (buffer == null || buffer.getWidth(null) != width || buffer.getHeight(null) != height) {
+                buffer = createImage(width, height);
+            }
+            
+            Graphics offscreen = buffer.getGraphics();
+            offscreen.setColor(getBackground());
+            offscreen.fillRect(0, 0, width, height);
+            offscreen.setColor(getForeground());
+            offscreen.setFont(getFont());
+            
+            FontMetrics metrics = offscreen.getFontMetrics();
+            int rowHeight = metrics.getHeight();
+            int first = verticalBar.getValue();
+            int last = Math.min(messageCount, first + visibleRows() + 1);
+            int x = PADDING - horizontalBar.getValue();
+            int y = PADDING + metrics.getAscent();
+            boolean widened = false;
+            
+            List<Message> visible = groupChat.getMessages(first, last);
+            for (Message message : visible) {
+                String line = message.formatMessage();
+                offscreen.drawString(line, x, y);
+                y += rowHeight;
+                
+                int lineWidth = metrics.stringWidth(line);
+                if (lineWidth > widestRow) {
+                    widestRow = lineWidth;
+                    widened = true;
+                }
+            }
+            offscreen.dispose();
+            g.drawImage(buffer, 0, 0, null);
+            
+            if (widened) {
+                updateScrollbars();
+            }
+        }
+    }
+}
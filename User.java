@@ -1,12 +1,13 @@
 import java.util.Date;
 
 /**
- * Represents a user in the chat application
+ * Represents a user in the chat application.
+ * The username is held as a SymbolTable id.
  */
 public class User {
-    private String username;
+    private int usernameId;
     private String password;
-    private boolean isOnline;
+    private volatile boolean isOnline;
     private Date lastSeen;
     
     /**
@@ -15,7 +16,7 @@ public class User {
      * @param password The password
      */
     public User(String username, String password) {
-        this.username = username;
+        this.usernameId = SymbolTable.intern(username);
         this.password = password;
         this.isOnline = false;
         this.lastSeen = new Date();
@@ -23,11 +24,15 @@ public class User {
     
     // Getters and Setters
     public String getUsername() {
-        return username;
+        return SymbolTable.name(usernameId);
+    }
+    
+    public int getId() {
+        return usernameId;
     }
     
     public void setUsername(String username) {
-        this.username = username;
+        this.usernameId = SymbolTable.intern(username);
     }
     
     public String getPassword() {
@@ -59,6 +64,6 @@ public class User {
     
     @Override
     public String toString() {
-        return username + (isOnline ? " (Online)" : " (Offline)");
+        return getUsername() + (isOnline ? " (Online)" : " (Offline)");
     }
 }
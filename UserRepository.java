@@ -0,0 +1,198 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory hash index over users.txt.
+ * The file is loaded once; registrations append to both the file and the index,
+ * and changes made by other processes are picked up by re-reading only the bytes
+ * appended since the last load (or the whole file if it shrank).
+ * A changed credential is appended as a new line for the same user; the last
+ * line for a user wins.
+ */
+public class UserRepository {
+    private final File file;
+    private final Map<String, String> credentials;
+    private long loadedLength;
+    private long loadedModified;
+    
+    /**
+     * Constructor for UserRepository
+     * @param file The users file
+     */
+    public UserRepository(File file) {
+        this.file = file;
+        this.credentials = new LinkedHashMap<>();
+        this.loadedLength = 0;
+        this.loadedModified = 0;
+    }
+    
+    /**
+     * Check if a user exists
+     * @param username The username to check
+     * @return true if user exists
+     * @throws IOException If the users file cannot be read
+     */
+    public synchronized boolean exists(String username) throws IOException {
+        refresh();
+        return credentials.containsKey(username);
+    }
+    
+    /**
+     * Get the stored credential for a user
+     * @param username The username
+     * @return The stored credential, or null if the user does not exist
+     * @throws IOException If the users file cannot be read
+     */
+    public synchronized String getCredential(String username) throws IOException {
+        refresh();
+        return credentials.get(username);
+    }
+    
+    /**
+     * Register a new user, appending to the file and the index
+     * @param username The username
+     * @param credential The credential to store
+     * @throws IOException If the users file cannot be written
+     * @throws IllegalArgumentException If user already exists
+     */
+    public synchronized void register(String username, String credential) throws IOException {
+        refresh();
+        if (credentials.containsKey(username)) {
+            throw new IllegalArgumentException("User already exists!");
+        }
+        
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write((username + "|" + credential + System.lineSeparator())
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        credentials.put(username, credential);
+        markLoaded();
+    }
+    
+    /**
+     * Replace a user's credential, unless it changed since it was read
+     * @param username The username
+     * @param expected The credential the caller read
+     * @param credential The new credential
+     * @return true if the credential was replaced
+     * @throws IOException If the users file cannot be written
+     */
+    public synchronized boolean updateCredential(String username, String expected, String credential)
+            throws IOException {
+        refresh();
+        if (!expected.equals(credentials.get(username))) {
+            return false;
+        }
+        
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write((username + "|" + credential + System.lineSeparator())
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        credentials.put(username, credential);
+        markLoaded();
+        return true;
+    }
+    
+    /**
+     * Hash every plaintext password and rewrite the file with one line per user.
+     * Run it while no chat process is using the file.
+     * @return Number of passwords hashed
+     * @throws IOException If the users file cannot be read or written
+     */
+    public synchronized int hashPlaintextCredentials() throws IOException {
+        refresh();
+        int hashed = 0;
+        for (Map.Entry<String, String> entry : credentials.entrySet()) {
+            if (!PasswordHasher.isHashed(entry.getValue())) {
+                entry.setValue(PasswordHasher.hash(entry.getValue()));
+                hashed++;
+            }
+        }
+        
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String> entry : credentials.entrySet()) {
+                out.write(entry.getKey() + "|" + entry.getValue() + System.lineSeparator());
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        markLoaded();
+        return hashed;
+    }
+    
+    /**
+     * Get all registered usernames in registration order
+     * @return List of usernames
+     * @throws IOException If the users file cannot be read
+     */
+    public synchronized List<String> getUsernames() throws IOException {
+        refresh();
+        return new ArrayList<>(credentials.keySet());
+    }
+    
+    /**
+     * Bring the index up to date with the file on disk
+     */
+    private void refresh() throws IOException {
+        if (!file.exists()) {
+            credentials.clear();
+            loadedLength = 0;
+            loadedModified = 0;
+            return;
+        }
+        
+        long length = file.length();
+        long modified = file.lastModified();
+        if (length == loadedLength && modified == loadedModified) {
+            return;
+        }
+        
+        long start = loadedLength;
+        if (length <= loadedLength) {
+            // File was rewritten; start over
+            credentials.clear();
+            start = 0;
+        }
+        
+        try (FileInputStream fis = new FileInputStream(file)) {
+            fis.getChannel().position(start);
+            BufferedReader br = new BufferedReader(new InputStreamReader(fis, StandardCharsets.UTF_8));
+            String line;
+            while ((line = br.readLine()) != null) {
+                int separator = line.indexOf('|');
+                if (separator > 0) {
+                    credentials.put(line.substring(0, separator), line.substring(separator + 1));
+                }
+            }
+        }
+        loadedLength = length;
+        loadedModified = modified;
+    }
+    
+    private void markLoaded() {
+        loadedLength = file.length();
+        loadedModified = file.lastModified();
+    }
+    
+    /**
+     * Hash the plaintext passwords of a users file from the command line
+     * @param args "migrate" and the users file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("migrate")) {
+            int migrated = new UserRepository(new File(args[1])).hashPlaintextCredentials();
+            System.out.println("Hashed " + migrated + " plaintext password(s) in " + args[1]);
+        } else {
+            System.err.println("Usage: java UserRepository migrate <users.txt>");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Short-lived memory of recent successful logins, so a user who reconnects
+ * repeatedly (for example after a network drop) pays the PBKDF2 cost once per
+ * lifetime instead of on every attempt.
+ * Passwords are never kept: each entry holds an HMAC of the password under a
+ * random per-process key, and the stored credential it was checked against, so
+ * a changed or rehashed credential invalidates the entry.
+ */
+public class VerificationCache {
+    private static final int MAX_ENTRIES = 10000;
+    
+    private final long lifetimeMillis;
+    private final Map<String, Entry> entries;
+    private final SecretKeySpec key;
+    
+    private static final class Entry {
+        final String stored;
+        final byte[] tag;
+        final long expiresAt;
+        
+        Entry(String stored, byte[] tag, long expiresAt) {
+            this.stored = stored;
+            this.tag = tag;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    /**
+     * Constructor for VerificationCache
+     * @param lifetimeMillis How long a successful login is remembered; 0 disables the cache
+     */
+    public VerificationCache(long lifetimeMillis) {
+        if (lifetimeMillis < 0) {
+            throw new IllegalArgumentException("Lifetime cannot be negative: " + lifetimeMillis);
+        }
+        this.lifetimeMillis = lifetimeMillis;
+        this.entries = new ConcurrentHashMap<>();
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+    }
+    
+    /**
+     * Check whether a password was recently verified against a stored credential
+     * @param username The username
+     * @param password The password
+     * @param stored The user's current stored credential
+     * @return true if the same password matched the same credential within the lifetime
+     */
+    public boolean isVerified(String username, String password, String stored) {
+        Entry entry = entries.get(username);
+        if (entry == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() >= entry.expiresAt || !entry.stored.equals(stored)) {
+            entries.remove(username, entry);
+            return false;
+        }
+        return MessageDigest.isEqual(entry.tag, tag(password));
+    }
+    
+    /**
+     * Remember a successful verification
+     * @param username The username
+     * @param password The password that matched
+     * @param stored The stored credential it matched
+     */
+    public void remember(String username, String password, String stored) {
+        if (lifetimeMillis == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.values().removeIf(entry -> now >= entry.expiresAt);
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+        }
+        entries.put(username, new Entry(stored, tag(password), now + lifetimeMillis));
+    }
+    
+    private byte[] tag(String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            // Every Java runtime ships HmacSHA256
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
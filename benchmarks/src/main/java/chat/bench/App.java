@@ -0,0 +1,245 @@
+package chat.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Entry points into the chat application for the benchmarks.
+ * The application classes live in the unnamed package, which named packages
+ * cannot import and JMH cannot generate code for, so they are reached through
+ * method handles. The handles are static final, so the JIT inlines the calls
+ * and the indirection costs nothing measurable. Looking a handle up does not
+ * initialize its class; FileManager reads chat.dir only when first called.
+ */
+final class App {
+    private static final MethodHandle NEW_MESSAGE;
+    private static final MethodHandle FORMAT_MESSAGE;
+    private static final MethodHandle TO_FILE_FORMAT;
+    private static final MethodHandle FROM_FILE_FORMAT;
+    private static final MethodHandle NEW_GROUP_CHAT;
+    private static final MethodHandle ADD_MESSAGE;
+    private static final MethodHandle GET_RECENT_MESSAGES;
+    private static final MethodHandle DEFAULT_ROOM;
+    private static final MethodHandle OPEN_ROOM;
+    private static final MethodHandle ROOM_POST;
+    private static final MethodHandle ROOM_FLUSH;
+    private static final MethodHandle LOAD_CHAT_HISTORY;
+    private static final MethodHandle NEW_MESSAGE_LOG;
+    private static final MethodHandle LOG_APPEND;
+    private static final MethodHandle LOG_CLOSE;
+    private static final MethodHandle HASH_PASSWORD;
+    private static final MethodHandle VERIFY_PASSWORD;
+    private static final MethodHandle PASSWORD_ITERATIONS;
+    
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            ClassLoader loader = App.class.getClassLoader();
+            Class<?> message = Class.forName("Message", false, loader);
+            Class<?> groupChat = Class.forName("GroupChat", false, loader);
+            Class<?> fileManager = Class.forName("FileManager", false, loader);
+            Class<?> messageLog = Class.forName("MessageLog", false, loader);
+            Class<?> chatRoom = Class.forName("ChatRoom", false, loader);
+            Class<?> passwordHasher = Class.forName("PasswordHasher", false, loader);
+            
+            NEW_MESSAGE = lookup.findConstructor(message,
+                    MethodType.methodType(void.class, String.class, String.class, Date.class))
+                    .asType(MethodType.methodType(Object.class, String.class, String.class, Date.class));
+            FORMAT_MESSAGE = lookup.findVirtual(message, "formatMessage", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            TO_FILE_FORMAT = lookup.findVirtual(message, "toFileFormat", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            FROM_FILE_FORMAT = lookup.findStatic(message, "fromFileFormat",
+                    MethodType.methodType(message, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            NEW_GROUP_CHAT = lookup.findConstructor(groupChat, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            ADD_MESSAGE = lookup.findVirtual(groupChat, "addMessage", MethodType.methodType(void.class, message))
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            GET_RECENT_MESSAGES = lookup.findVirtual(groupChat, "getRecentMessages",
+                    MethodType.methodType(List.class, int.class))
+                    .asType(MethodType.methodType(List.class, Object.class, int.class));
+            DEFAULT_ROOM = lookup.findStaticGetter(fileManager, "DEFAULT_ROOM", String.class);
+            OPEN_ROOM = lookup.findStatic(fileManager, "openRoom", MethodType.methodType(chatRoom, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            ROOM_POST = lookup.findVirtual(chatRoom, "post", MethodType.methodType(void.class, message))
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            ROOM_FLUSH = lookup.findVirtual(chatRoom, "flush", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            LOAD_CHAT_HISTORY = lookup.findStatic(fileManager, "loadChatHistory", MethodType.methodType(List.class));
+            NEW_MESSAGE_LOG = lookup.findConstructor(messageLog, MethodType.methodType(void.class, File.class))
+                    .asType(MethodType.methodType(Object.class, File.class));
+            LOG_APPEND = lookup.findVirtual(messageLog, "append", MethodType.methodType(long.class, message))
+                    .asType(MethodType.methodType(long.class, Object.class, Object.class));
+            LOG_CLOSE = lookup.findVirtual(messageLog, "close", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            HASH_PASSWORD = lookup.findStatic(passwordHasher, "hash",
+                    MethodType.methodType(String.class, String.class));
+            VERIFY_PASSWORD = lookup.findStatic(passwordHasher, "verify",
+                    MethodType.methodType(boolean.class, String.class, String.class));
+            PASSWORD_ITERATIONS = lookup.findStatic(passwordHasher, "getIterations", MethodType.methodType(int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private App() {
+    }
+    
+    static Object newMessage(String sender, String content, Date timestamp) {
+        try {
+            return NEW_MESSAGE.invokeExact(sender, content, timestamp);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static String formatMessage(Object message) {
+        try {
+            return (String) FORMAT_MESSAGE.invokeExact(message);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static String toFileFormat(Object message) {
+        try {
+            return (String) TO_FILE_FORMAT.invokeExact(message);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static Object fromFileFormat(String line) {
+        try {
+            return FROM_FILE_FORMAT.invokeExact(line);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static Object newGroupChat(String name) {
+        try {
+            return NEW_GROUP_CHAT.invokeExact(name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static void addMessage(Object groupChat, Object message) {
+        try {
+            ADD_MESSAGE.invokeExact(groupChat, message);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static List<?> getRecentMessages(Object groupChat, int count) {
+        try {
+            return (List<?>) GET_RECENT_MESSAGES.invokeExact(groupChat, count);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    /** Open the room ChatUI opens by default, which owns FileManager's message log */
+    static Object openDefaultRoom() {
+        try {
+            String name = (String) DEFAULT_ROOM.invokeExact();
+            return OPEN_ROOM.invokeExact(name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static void post(Object room, Object message) {
+        try {
+            ROOM_POST.invokeExact(room, message);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static void flush(Object room) {
+        try {
+            ROOM_FLUSH.invokeExact(room);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static List<?> loadChatHistory() {
+        try {
+            return (List<?>) LOAD_CHAT_HISTORY.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static Object openMessageLog(File directory) {
+        try {
+            return NEW_MESSAGE_LOG.invokeExact(directory);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static void append(Object messageLog, Object message) {
+        try {
+            long ordinal = (long) LOG_APPEND.invokeExact(messageLog, message);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static void close(Object messageLog) {
+        try {
+            LOG_CLOSE.invokeExact(messageLog);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static String hashPassword(String password) {
+        try {
+            return (String) HASH_PASSWORD.invokeExact(password);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static boolean verifyPassword(String password, String stored) {
+        try {
+            return (boolean) VERIFY_PASSWORD.invokeExact(password, stored);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    static int passwordIterations() {
+        try {
+            return (int) PASSWORD_ITERATIONS.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof IOException) {
+            throw new UncheckedIOException((IOException) t);
+        }
+        throw new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,106 @@
+package chat.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FileManager persistence against real files.
+ * FileManager keeps its data directory in static state read once from chat.dir,
+ * so each state points chat.dir at its own directory before FileManager is
+ * first used. That needs a fresh JVM per benchmark: do not run with -f 0.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FileManagerBenchmark {
+    private static final int INPUTS = 1024;
+    
+    /** An empty data directory in a temporary folder; saved messages pile up in it */
+    @State(Scope.Benchmark)
+    public static class SaveState {
+        @Param({"64", "512"})
+        public int messageLength;
+        
+        @Param({"0.1"})
+        public double mentionDensity;
+        
+        File directory;
+        Object room;
+        Object[] messages;
+        int next;
+        
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("chat-bench").toFile();
+            System.setProperty("chat.dir", directory.getPath());
+            room = App.openDefaultRoom();
+            SyntheticData data = new SyntheticData(messageLength, mentionDensity);
+            messages = new Object[INPUTS];
+            for (int i = 0; i < INPUTS; i++) {
+                messages[i] = data.nextMessage();
+            }
+        }
+        
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SyntheticData.deleteRecursively(directory);
+        }
+    }
+    
+    /** A generated history of historySize messages, reused across runs */
+    @State(Scope.Benchmark)
+    public static class LoadState {
+        @Param({"1000", "100000", "1000000", "10000000"})
+        public int historySize;
+        
+        @Param({"64"})
+        public int messageLength;
+        
+        @Param({"0.1"})
+        public double mentionDensity;
+        
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            File directory = SyntheticData.historyDirectory(historySize, messageLength, mentionDensity);
+            System.setProperty("chat.dir", directory.getPath());
+        }
+    }
+    
+    /**
+     * Post one message to the default room and write it out, as ChatUI posts
+     * every message sent
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public void postMessage(SaveState state) {
+        state.next = (state.next + 1) & (INPUTS - 1);
+        App.post(state.room, state.messages[state.next]);
+        App.flush(state.room);
+    }
+    
+    /** Read the whole history back, as ChatUI does at startup */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2, time = 5)
+    @Measurement(iterations = 3, time = 5)
+    public List<?> loadChatHistory(LoadState state) {
+        return App.loadChatHistory();
+    }
+}
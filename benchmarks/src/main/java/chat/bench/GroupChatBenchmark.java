@@ -0,0 +1,73 @@
+package chat.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * GroupChat operations against a chat that already holds historySize messages.
+ * addMessage keeps appending during the run, so the history grows by the number
+ * of measured operations; for the smallest sizes that growth is part of the result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class GroupChatBenchmark {
+    private static final int INPUTS = 1024;
+    private static final int RECENT = 50;
+    
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int historySize;
+    
+    @Param({"64", "512"})
+    public int messageLength;
+    
+    @Param({"0.1"})
+    public double mentionDensity;
+    
+    private Object groupChat;
+    private Object[] incoming;
+    private int next;
+    
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData(messageLength, mentionDensity);
+        groupChat = App.newGroupChat("Benchmark Chat");
+        for (int i = 0; i < historySize; i++) {
+            App.addMessage(groupChat, data.nextMessage());
+        }
+        incoming = new Object[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            incoming[i] = data.nextMessage();
+        }
+    }
+    
+    @Benchmark
+    public void addMessage() {
+        next = (next + 1) & (INPUTS - 1);
+        App.addMessage(groupChat, incoming[next]);
+    }
+    
+    /** Fetch the recent messages and touch each one, as the transcript does */
+    @Benchmark
+    public void getRecentMessages(Blackhole blackhole) {
+        List<?> recent = App.getRecentMessages(groupChat, RECENT);
+        for (int i = 0; i < recent.size(); i++) {
+            blackhole.consume(recent.get(i));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package chat.bench;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creating, formatting and parsing single messages.
+ * Each operation takes the next of a fixed set of generated messages, so
+ * branch predictors and caches see a realistic mix rather than one input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    private static final int INPUTS = 1024;
+    
+    @Param({"32", "256", "2048"})
+    public int messageLength;
+    
+    @Param({"0.0", "0.1", "0.5"})
+    public double mentionDensity;
+    
+    private String[] senders;
+    private String[] contents;
+    private Date[] timestamps;
+    private Object[] messages;
+    private String[] lines;
+    private int next;
+    
+    @Setup
+    public void setup() {
+        SyntheticData data = new SyntheticData(messageLength, mentionDensity);
+        senders = new String[INPUTS];
+        contents = new String[INPUTS];
+        timestamps = new Date[INPUTS];
+        messages = new Object[INPUTS];
+        lines = new String[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            senders[i] = data.nextSender();
+            contents[i] = data.nextContent();
+            timestamps[i] = data.nextTimestamp();
+            messages[i] = App.newMessage(senders[i], contents[i], timestamps[i]);
+            lines[i] = App.toFileFormat(messages[i]);
+        }
+    }
+    
+    private int nextIndex() {
+        next = (next + 1) & (INPUTS - 1);
+        return next;
+    }
+    
+    /** Message constructor, including the mention scan */
+    @Benchmark
+    public Object create() {
+        int i = nextIndex();
+        return App.newMessage(senders[i], contents[i], timestamps[i]);
+    }
+    
+    @Benchmark
+    public String formatMessage() {
+        return App.formatMessage(messages[nextIndex()]);
+    }
+    
+    @Benchmark
+    public String toFileFormat() {
+        return App.toFileFormat(messages[nextIndex()]);
+    }
+    
+    @Benchmark
+    public Object fromFileFormat() {
+        return App.fromFileFormat(lines[nextIndex()]);
+    }
+}
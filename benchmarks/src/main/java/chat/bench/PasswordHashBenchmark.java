@@ -0,0 +1,61 @@
+package chat.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PasswordHasher at the configured PBKDF2 iteration count, the cost paid by
+ * every registration and every login that misses the auth cache.
+ * PasswordHasher reads chat.pbkdf2.iterations once, so the state sets it from
+ * the iterations parameter before the class is first used. That needs a fresh
+ * JVM per parameter value: do not run with -f 0. Compare candidate counts with
+ * for example {@code -p iterations=100000,210000,600000}; one core manages
+ * 1000 / score logins per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+    private static final String PASSWORD = "correct horse battery staple";
+    
+    @Param({"210000"})
+    public int iterations;
+    
+    private String stored;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        System.setProperty("chat.pbkdf2.iterations", Integer.toString(iterations));
+        if (App.passwordIterations() != iterations) {
+            throw new IllegalStateException("PasswordHasher was initialized with "
+                    + App.passwordIterations() + " iterations; run each parameter in its own fork");
+        }
+        stored = App.hashPassword(PASSWORD);
+    }
+    
+    /** Hash with a new salt, as a registration or a rehash after login does */
+    @Benchmark
+    public String hash() {
+        return App.hashPassword(PASSWORD);
+    }
+    
+    /** Check a correct password against its stored hash, as a login does */
+    @Benchmark
+    public boolean verify() {
+        return App.verifyPassword(PASSWORD, stored);
+    }
+}
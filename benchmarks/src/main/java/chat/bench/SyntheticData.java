@@ -0,0 +1,121 @@
+package chat.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic chat data for the benchmarks.
+ * Every generator is seeded, so the same parameters always give the same
+ * messages and files, and results from different runs are comparable.
+ */
+final class SyntheticData {
+    static final int USERS = 50;
+    private static final long SEED = 20240101L;
+    private static final long START_TIME = 1700000000000L;
+    private static final String WORDS = "the quick brown fox jumps over lazy dog build deploy merge review "
+            + "release ticket sprint standup lunch coffee server client latency cache query index ";
+    private static final String[] VOCABULARY = WORDS.trim().split(" ");
+    
+    private final Random random;
+    private final int messageLength;
+    private final double mentionDensity;
+    private long time;
+    
+    /**
+     * @param messageLength Approximate content length in characters
+     * @param mentionDensity Fraction of messages that mention another user, 0 to 1
+     */
+    SyntheticData(int messageLength, double mentionDensity) {
+        if (messageLength < 1 || mentionDensity < 0 || mentionDensity > 1) {
+            throw new IllegalArgumentException("Bad parameters: " + messageLength + ", " + mentionDensity);
+        }
+        this.random = new Random(SEED);
+        this.messageLength = messageLength;
+        this.mentionDensity = mentionDensity;
+        this.time = START_TIME;
+    }
+    
+    static String user(int index) {
+        return "user" + index;
+    }
+    
+    String nextSender() {
+        return user(random.nextInt(USERS));
+    }
+    
+    String nextContent() {
+        StringBuilder content = new StringBuilder(messageLength + 16);
+        if (random.nextDouble() < mentionDensity) {
+            content.append('@').append(user(random.nextInt(USERS))).append(' ');
+        }
+        while (content.length() < messageLength) {
+            content.append(VOCABULARY[random.nextInt(VOCABULARY.length)]).append(' ');
+        }
+        content.setLength(messageLength);
+        if (random.nextInt(8) == 0) {
+            content.setCharAt(messageLength - 1, '?');
+        }
+        return content.toString();
+    }
+    
+    Date nextTimestamp() {
+        time += 1 + random.nextInt(30000);
+        return new Date(time);
+    }
+    
+    Object nextMessage() {
+        return App.newMessage(nextSender(), nextContent(), nextTimestamp());
+    }
+    
+    /**
+     * Get a data directory holding a message log with the given history,
+     * generating it on first use. Later runs reuse the files.
+     * @param historySize Number of messages
+     * @param messageLength Approximate content length in characters
+     * @param mentionDensity Fraction of messages that mention another user
+     * @return Directory to use as chat.dir
+     * @throws IOException If the files cannot be written
+     */
+    static File historyDirectory(int historySize, int messageLength, double mentionDensity) throws IOException {
+        File root = new File(System.getProperty("bench.data", "target/bench-data"));
+        File directory = new File(root, "history-" + historySize + "-" + messageLength + "-" + mentionDensity);
+        File log = new File(directory, "chat_history");
+        if (log.isDirectory()) {
+            return directory;
+        }
+        
+        // Generate into a scratch directory so an interrupted run is not reused
+        File scratch = new File(root, directory.getName() + ".tmp");
+        deleteRecursively(scratch);
+        File scratchLog = new File(scratch, "chat_history");
+        SyntheticData data = new SyntheticData(messageLength, mentionDensity);
+        Object messageLog = App.openMessageLog(scratchLog);
+        try {
+            for (int i = 0; i < historySize; i++) {
+                App.append(messageLog, data.nextMessage());
+            }
+        } finally {
+            App.close(messageLog);
+        }
+        Files.createDirectories(directory.toPath());
+        Files.move(scratchLog.toPath(), log.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        deleteRecursively(scratch);
+        return directory;
+    }
+    
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            System.err.println("Could not delete " + file);
+        }
+    }
+}